@@ -52,7 +52,16 @@ public class JapaneseVocabEditorTest {
 //			file = chooser.getSelectedFile();
 //		}
 		try {
+			long start = System.nanoTime();
 			VocabModel model = JsonVocabIO.readJsonFile(file);
+			long treeTime = System.nanoTime() - start;
+			start = System.nanoTime();
+			VocabModel streamModel = JsonVocabIO.readJsonFileStreaming(file);
+			long streamTime = System.nanoTime() - start;
+			Logger.getAnonymousLogger().log(Level.INFO,
+					"Tree read {0} vocab in {1}ms, streaming read {2} vocab in {3}ms",
+					new Object[]{model.getVocabCount(), treeTime / 1000000,
+						streamModel.getVocabCount(), streamTime / 1000000});
 			JsonVocabIO.writeJsonFile(new File("test_out.json"), model);
 		}
 		catch (FileNotFoundException ex) {
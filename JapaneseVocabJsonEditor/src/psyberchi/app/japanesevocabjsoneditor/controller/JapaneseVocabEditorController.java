@@ -16,11 +16,18 @@ import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.prefs.PreferenceChangeEvent;
@@ -34,16 +41,25 @@ import javax.swing.JMenu;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPopupMenu;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
 import javax.swing.JTextField;
+import javax.swing.SwingWorker;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
+import org.json.simple.parser.ParseException;
 import psyberchi.app.japanesevocabjsoneditor.model.EditorPreferences;
 import psyberchi.app.japanesevocabjsoneditor.model.EditorPreferences.FieldName;
-import psyberchi.app.japanesevocabjsoneditor.model.EnglishComparator;
+import psyberchi.app.japanesevocabjsoneditor.model.JsonVocabIO;
+import psyberchi.app.japanesevocabjsoneditor.model.VocabComparator;
+import psyberchi.app.japanesevocabjsoneditor.model.VocabFilter;
 import psyberchi.app.japanesevocabjsoneditor.model.VocabItem;
 import psyberchi.app.japanesevocabjsoneditor.model.VocabModel;
+import psyberchi.app.japanesevocabjsoneditor.model.VocabSnapshot;
 import psyberchi.app.japanesevocabjsoneditor.ui.EditorPrefPanel;
 import psyberchi.app.japanesevocabjsoneditor.ui.JapaneseVocabEditor;
 import static psyberchi.app.japanesevocabjsoneditor.ui.JapaneseVocabEditor.APP_TITLE;
@@ -53,7 +69,7 @@ import psyberchi.app.japanesevocabjsoneditor.ui.PreferenceDialog;
 /**
  * @author Kendall Conrad
  */
-public class JapaneseVocabEditorController implements ActionListener, ChangeListener, FocusListener, ItemListener, ListSelectionListener, PreferenceChangeListener, PropertyChangeListener {
+public class JapaneseVocabEditorController implements ActionListener, ChangeListener, DocumentListener, FocusListener, ItemListener, ListSelectionListener, PreferenceChangeListener, PropertyChangeListener {
 	/**
 	 * Logger
 	 */
@@ -73,7 +89,7 @@ public class JapaneseVocabEditorController implements ActionListener, ChangeList
 	/**
 	 * A container for all of the current set of vocabulary.
 	 */
-	private ArrayList<VocabItem> vocabulary = new ArrayList<>();
+	private List<VocabItem> vocabulary = new ArrayList<>();
 	/**
 	 * Whether the status message is a timed one.
 	 */
@@ -89,9 +105,14 @@ public class JapaneseVocabEditorController implements ActionListener, ChangeList
 	/**
 	 * The ListModel for the vocabulary JList.
 	 */
-	public DefaultListModel modelVocabulary = null;
+	public VocabListModel modelVocabulary = null;
 	private static final String defaultFontNameEn = "Verdana";
 	private static final String defaultFontNameJp = "serif";
+	/**
+	 * The most letters romaji can differ by to be reported as near
+	 * duplicates.
+	 */
+	private static final int NEAR_DUPLICATE_DISTANCE = 1;
 	private Font defaultFont = new Font(defaultFontNameEn, Font.PLAIN, 16);
 	private HashMap<FieldName, Font> fontMap = new HashMap<>();
 	/**
@@ -122,6 +143,23 @@ public class JapaneseVocabEditorController implements ActionListener, ChangeList
 	 * The vocabulary model holding categories and vocabulary.
 	 */
 	private VocabModel model = null;
+	/**
+	 * The worker reading a file in the background, if any.
+	 */
+	private LoadWorker loadWorker = null;
+	/**
+	 * The categories of {@link #readingModel} being read in the background.
+	 */
+	private final Set<String> readingCategories = new HashSet<>();
+	private VocabModel readingModel = null;
+	/**
+	 * The worker looking for near duplicates, if any.
+	 */
+	private NearDuplicatesWorker nearDuplicatesWorker = null;
+	/**
+	 * Narrows the vocabulary list to what is typed in its filter field.
+	 */
+	private final VocabFilter vocabFilter = new VocabFilter();
 
 	/**
 	 * ActionCommand list for the editor.
@@ -139,6 +177,10 @@ public class JapaneseVocabEditorController implements ActionListener, ChangeList
 		 * Opens a recent file
 		 */
 		FileRecent,
+		/**
+		 * Stop opening a file that is being read in the background
+		 */
+		FileOpenCancel,
 		/**
 		 * Save open file
 		 */
@@ -179,6 +221,10 @@ public class JapaneseVocabEditorController implements ActionListener, ChangeList
 		 * Move a currently selected vocabulary
 		 */
 		VocabMove,
+		/**
+		 * Report vocabulary with romaji spelled alike
+		 */
+		VocabNearDuplicates,
 		/**
 		 * The sort mode has changed
 		 */
@@ -211,10 +257,25 @@ public class JapaneseVocabEditorController implements ActionListener, ChangeList
 	 * Enumeration of vocabulary display modes.
 	 */
 	public enum VocabDisplayMode {
-		English,
-		Romaji,
-		Kana,
-		Kanji;
+		English(VocabComparator.ENGLISH),
+		Romaji(VocabComparator.ROMAJI),
+		Kana(VocabComparator.KANA),
+		Kanji(VocabComparator.KANJI);
+		/**
+		 * The order the vocabulary is listed in when shown this way.
+		 */
+		private final VocabComparator comparator;
+
+		private VocabDisplayMode(VocabComparator comparator) {
+			this.comparator = comparator;
+		}
+
+		/**
+		 * @return the order the vocabulary is listed in.
+		 */
+		public VocabComparator getComparator() {
+			return comparator;
+		}
 	};
 
 	/**
@@ -243,7 +304,7 @@ public class JapaneseVocabEditorController implements ActionListener, ChangeList
 	public void initComponents() {
 		modelCategories = new DefaultListModel();
 		modelLessons = new DefaultListModel();
-		modelVocabulary = new DefaultListModel();
+		modelVocabulary = new VocabListModel();
 		// Set the list selector panels with the new models
 		vocabEditor.listSelectorCategoryLesson.setListModel(modelCategories);
 		vocabEditor.listSelectorVocabulary.setListModel(modelVocabulary);
@@ -264,31 +325,15 @@ public class JapaneseVocabEditorController implements ActionListener, ChangeList
 				openFile();
 				break;
 			case FileRecent:
-				// Open the recent file clicked on
-				// TODO Move to new method
-				Object obj = ae.getSource();
-				if (!(obj instanceof JMenuItem)) {
-					return;
-				}
-				// Check if file exist and is readable
-				JMenuItem menuItem = (JMenuItem) ae.getSource();
-				File recentFile = new File(menuItem.getText);
-				if (!file.exists()) {
-					// notify user of bad recent file
-				}
-				if (!file.canRead()) {
-					// notify user
-				}
-				if (!file.canWrite()) {
-					// notify user it's read-only
-				}
-				// Open and try to load file
-				if (!vocabIo.openFile(recentFile, model)) {
-					// TODO notify user of fail?
+				openRecentFile(ae.getSource());
+				break;
+			case FileOpenCancel:
+				if (cancelFileLoad()) {
+					setStatusText("Cancelling...");
 				}
 				break;
 			case FileSave:
-				vocabIo.saveFile(model);
+				vocabIo.saveFileInBackground(model);
 				break;
 			case FileSaveAs:
 				vocabIo.saveAsFile(model);
@@ -302,6 +347,7 @@ public class JapaneseVocabEditorController implements ActionListener, ChangeList
 				break;
 			case Exit:
 				if (vocabIo.closeFile(model)) {
+					cancelFileLoad();
 					vocabEditor.dispose();
 				}
 				break;
@@ -338,6 +384,9 @@ public class JapaneseVocabEditorController implements ActionListener, ChangeList
 			case VocabMove:
 				moveVocabulary(ae.getActionCommand());
 				break;
+			case VocabNearDuplicates:
+				showNearDuplicates();
+				break;
 			case SortModeChange:
 				updateCategoryLessonList();
 				switch (getSortMode()) {
@@ -380,7 +429,7 @@ public class JapaneseVocabEditorController implements ActionListener, ChangeList
 	 * @return
 	 */
 	private boolean addCategory(String cat) {
-		if (model != null && cat != null && !modelCategories.contains(cat)) {
+		if (model != null && cat != null && !model.hasCategory(cat)) {
 			model.addCategory(cat);
 			logger.log(Level.INFO, "Adding new category: {0}", cat);
 			// Make sure it's sorted after add
@@ -437,7 +486,7 @@ public class JapaneseVocabEditorController implements ActionListener, ChangeList
 	 * @return true if successfully added, false otherwise.
 	 */
 	public boolean addVocabulary(VocabItem item, String category) {
-		if (model != null && item != null && !vocabulary.contains(item)) {
+		if (model != null && item != null && !model.hasVocabItem(category, item)) {
 			if (model.addVocabItem(category, item)) {
 				updateVocabularyList(category);
 				vocabIo.setFileModified(true);
@@ -448,10 +497,35 @@ public class JapaneseVocabEditorController implements ActionListener, ChangeList
 		return false;
 	}
 
+	/**
+	 * Cancels reading a file in the background, if one is being read.
+	 *
+	 * @return true if a read was cancelled.
+	 */
+	private boolean cancelFileLoad() {
+		if (loadWorker != null && !loadWorker.isDone()) {
+			return loadWorker.cancel(false);
+		}
+		return false;
+	}
+
+	/**
+	 * Handle filter field changes.
+	 *
+	 * @param de
+	 */
+	@Override
+	public void changedUpdate(DocumentEvent de) {
+		// Attribute changes don't change the text
+	}
+
 	/**
 	 * Clears the GUI components to be ready for new data.
 	 */
 	public void clearGUI() {
+		// Clear the filter first, so it doesn't refill the vocabulary list
+		vocabEditor.listSelectorVocabulary.getFilterField().setText("");
+		vocabFilter.clear();
 		// Clear all of the JList
 		modelCategories.clear();
 		modelLessons.clear();
@@ -467,6 +541,8 @@ public class JapaneseVocabEditorController implements ActionListener, ChangeList
 	 */
 	public boolean closeFile() {
 		if (vocabIo.closeFile(model)) {
+			// Only stop a read once the user has agreed to close
+			cancelFileLoad();
 			clearGUI();
 			model = null;
 			return true;
@@ -586,6 +662,25 @@ public class JapaneseVocabEditorController implements ActionListener, ChangeList
 		return vocabulary.get(idx);
 	}
 
+	/**
+	 * Handle filter field changes.
+	 *
+	 * @param de
+	 */
+	@Override
+	public void insertUpdate(DocumentEvent de) {
+		updateVocabulary();
+	}
+
+	/**
+	 * Returns the text typed in the vocabulary filter field.
+	 *
+	 * @return
+	 */
+	private String getFilterText() {
+		return vocabEditor.listSelectorVocabulary.getFilterField().getText();
+	}
+
 	/**
 	 * Returns whether or not using a timed status.
 	 *
@@ -665,13 +760,11 @@ public class JapaneseVocabEditorController implements ActionListener, ChangeList
 		// Check if both categories exist
 		if (model.hasCategory(fromCat) && model.hasCategory(toCat)) {
 			// Check if vocab exists in from category
-			ArrayList<VocabItem> fromItems = model.getVocabItems(fromCat);
-			ArrayList<VocabItem> toItems = model.getVocabItems(toCat);
-			if (fromItems.contains(item)) {
+			if (model.hasVocabItem(fromCat, item)) {
 				// Remove it from category
 				model.removeVocabItem(fromCat, item);
 				// Add it to the other
-				if (!toItems.contains(item)) {
+				if (!model.hasVocabItem(toCat, item)) {
 					model.addVocabItem(toCat, item);
 				}
 				else {
@@ -716,43 +809,113 @@ public class JapaneseVocabEditorController implements ActionListener, ChangeList
 		else {
 			// Carry out menu action
 			// @todo Trim prefix
-			chosenCat = chosenCat.replaceAll("VocabMove_", "");
+			final String toCat = chosenCat.replaceAll("VocabMove_", "");
+			final String fromCat = currentCat;
 			sels = vocabEditor.listSelectorVocabulary.getList().getSelectedIndices();
-			// Move each one individually
+			final List<VocabItem> moving = new ArrayList<>(sels.length);
 			for (int a = sels.length - 1; a >= 0; a--) {
-				VocabItem vocab = vocabulary.get(sels[a]);
-				moveVocabItem(vocab, currentCat, chosenCat);
+				moving.add(vocabulary.get(sels[a]));
+			}
+			Runnable move = new Runnable() {
+				@Override
+				public void run() {
+					// Move each one individually
+					for (VocabItem vocab : moving) {
+						moveVocabItem(vocab, fromCat, toCat);
+					}
+					updateVocabularyList(currentCat);
+				}
+			};
+			// The target has to be read in before anything can be added to it
+			if (model.isCategoryLoaded(toCat)) {
+				move.run();
+			}
+			else {
+				setStatusText("Reading vocabulary...");
+				new CategoryReadWorker(model, Collections.singletonList(toCat), move).execute();
 			}
-			updateVocabularyList(currentCat);
 		}
 		return false;
 	}
 
 	/**
-	 * Handles the open file event, asking the user for a file and setting the
-	 * VocabModel appropriately based on a successful open.
+	 * Handles the open file event, asking the user for a file and reading it
+	 * in the background.
 	 */
 	private void openFile() {
-		try {
-			model = vocabIo.openFile(model);
-			if (model != null) {
-				clearGUI();
-				updateCategoryLessonList();
-				vocabEditor.listSelectorCategoryLesson.getSelector().setEnabled(true);
-				valueChanged(new ListSelectionEvent(vocabEditor.listSelectorVocabulary.getList(), 0, 0, false));
-				vocabEditor.setTitle(APP_TITLE + " - " + vocabIo.getFileOpened().getAbsolutePath());
-				String status = String.format(
-						"Opened %d categories and %d vocabulary from %s",
-						model.getCategoryCount(),
-						model.getVocabCount(),
-						vocabIo.getFileOpened().getName());
-				setStatusText(status, 5000);
+		File file = vocabIo.chooseOpenFile(model);
+		if (file != null) {
+			openFileInBackground(file);
+		}
+	}
 
-			}
+	/**
+	 * Reads the given file on a background thread, showing the progress in the
+	 * status bar. The lists are disabled until the read is done and the new
+	 * model is only put in place once it has been fully read.
+	 *
+	 * @param file the file to open.
+	 */
+	private void openFileInBackground(File file) {
+		cancelFileLoad();
+		vocabEditor.listSelectorCategoryLesson.getList().setEnabled(false);
+		setVocabControlStates(false);
+		setStatusText("Opening " + file.getName() + "..., Esc to cancel");
+		loadWorker = new LoadWorker(file);
+		loadWorker.execute();
+	}
+
+	/**
+	 * Opens a file picked from the recent files menu, the same way as a file
+	 * picked with the open dialog.
+	 *
+	 * @param source the menu item clicked on.
+	 */
+	private void openRecentFile(Object source) {
+		if (!(source instanceof JMenuItem)) {
+			return;
+		}
+		File recentFile = new File(((JMenuItem) source).getText());
+		if (!recentFile.isFile() || !recentFile.canRead()) {
+			JOptionPane.showMessageDialog(vocabEditor,
+					"Could not read " + recentFile.getPath(),
+					"Open Recent", JOptionPane.WARNING_MESSAGE);
+			return;
+		}
+		if (!recentFile.canWrite()) {
+			setStatusText(recentFile.getName() + " is read only", 4000);
+		}
+		if (vocabIo.confirmOpen(model)) {
+			openFileInBackground(recentFile);
+		}
+	}
+
+	/**
+	 * Puts a newly read model in place and sets up the GUI for it.
+	 *
+	 * @param newModel the model read from the file.
+	 * @param file the file the model was read from.
+	 */
+	private void setOpenedModel(VocabModel newModel, File file) {
+		int recovered = vocabIo.setFileLoaded(file, newModel);
+		if (model != null && model != newModel) {
+			model.close();
 		}
-		catch (Exception ex) {
-			setStatusText(ex.getLocalizedMessage(), 3000);
+		model = newModel;
+		clearGUI();
+		updateCategoryLessonList();
+		vocabEditor.listSelectorCategoryLesson.getSelector().setEnabled(true);
+		valueChanged(new ListSelectionEvent(vocabEditor.listSelectorVocabulary.getList(), 0, 0, false));
+		vocabEditor.setTitle(APP_TITLE + " - " + vocabIo.getFileOpened().getAbsolutePath());
+		String status = String.format(
+				"Opened %d categories and %d vocabulary from %s",
+				model.getCategoryCount(),
+				model.getVocabCount(),
+				vocabIo.getFileOpened().getName());
+		if (recovered > 0) {
+			status += String.format(", recovered %d unsaved changes", recovered);
 		}
+		setStatusText(status, 5000);
 	}
 
 	@Override
@@ -868,8 +1031,10 @@ public class JapaneseVocabEditorController implements ActionListener, ChangeList
 					vocabEditor.japaneseVocabEditorPanel.setEnglish(ov);
 					return;
 				}
-				// Make sure they aren't changing to an existing item
-				if (modelVocabulary.contains(nv) && !renamed) {
+				// Make sure they aren't changing to an existing item. The
+				// panel has already set the new value on the edited item.
+				if (!renamed && modelVocabulary.containsEnglish(nv,
+						vocabEditor.japaneseVocabEditorPanel.getVocabItem())) {
 					JOptionPane.showMessageDialog(null, "A vocabulary item with that English already exists.");
 					// Put the value back to the previous one
 					vocabEditor.japaneseVocabEditorPanel.setEnglish(ov);
@@ -905,6 +1070,35 @@ public class JapaneseVocabEditorController implements ActionListener, ChangeList
 		}
 	}
 
+	/**
+	 * Starts reading in the background any of the given categories that
+	 * haven't been read in yet. The vocabulary is shown again once they have.
+	 *
+	 * @param names the categories about to be shown.
+	 * @return true if they are all read in already.
+	 */
+	private boolean readCategories(Collection<String> names) {
+		if (readingModel != model) {
+			readingModel = model;
+			readingCategories.clear();
+		}
+		boolean loaded = true;
+		List<String> unread = new ArrayList<>();
+		for (String name : names) {
+			if (!model.isCategoryLoaded(name)) {
+				loaded = false;
+				if (readingCategories.add(name)) {
+					unread.add(name);
+				}
+			}
+		}
+		if (!unread.isEmpty()) {
+			setStatusText("Reading vocabulary...");
+			new CategoryReadWorker(model, unread).execute();
+		}
+		return loaded;
+	}
+
 	/**
 	 * Read the user preferences and set fields appropriately.
 	 */
@@ -961,6 +1155,16 @@ public class JapaneseVocabEditorController implements ActionListener, ChangeList
 //		vocabEditor.jMenuItemRecent.add(recentMenu);
 	}
 
+	/**
+	 * Handle filter field changes.
+	 *
+	 * @param de
+	 */
+	@Override
+	public void removeUpdate(DocumentEvent de) {
+		updateVocabulary();
+	}
+
 	/**
 	 * Removes selected vocabulary from the list asking confirmation from the
 	 * user if desired.
@@ -1070,6 +1274,7 @@ public class JapaneseVocabEditorController implements ActionListener, ChangeList
 		// Add/remove buttons only valid for category mode
 		vocabEditor.listSelectorCategoryLesson.getSelector().setEnabled(enable);
 		vocabEditor.listSelectorVocabulary.getSelector().setEnabled(enable);
+		vocabEditor.listSelectorVocabulary.getFilterField().setEnabled(enable);
 		vocabEditor.japaneseVocabEditorPanel.setEnabled(enable /*&& vocabSelected*/);
 		// Buttons
 		vocabEditor.jButtonCategoryAdd.setEnabled(enable);
@@ -1083,6 +1288,7 @@ public class JapaneseVocabEditorController implements ActionListener, ChangeList
 		vocabEditor.jMenuItemVocabAdd.setEnabled(enable);
 		vocabEditor.jMenuItemVocabDelete.setEnabled(enable);
 		vocabEditor.jMenuItemVocabMove.setEnabled(enable);
+		vocabEditor.jMenuItemVocabNearDuplicates.setEnabled(enable);
 	}
 
 	/**
@@ -1180,6 +1386,31 @@ public class JapaneseVocabEditorController implements ActionListener, ChangeList
 		}
 	}
 
+	/**
+	 * Shows a report of the vocabulary whose romaji are spelled alike, one
+	 * group to a paragraph, so duplicates can be found and merged by hand.
+	 * The search runs in the background on a snapshot of the model, after
+	 * any categories not yet read in have been.
+	 */
+	private void showNearDuplicates() {
+		if (model == null || nearDuplicatesWorker != null) {
+			return;
+		}
+		if (!model.isLoaded()) {
+			setStatusText("Reading vocabulary...");
+			new CategoryReadWorker(model, model.getCategories(), new Runnable() {
+				@Override
+				public void run() {
+					showNearDuplicates();
+				}
+			}).execute();
+			return;
+		}
+		setStatusText("Looking for near duplicates...");
+		nearDuplicatesWorker = new NearDuplicatesWorker(model.createSnapshot(false));
+		nearDuplicatesWorker.execute();
+	}
+
 	/**
 	 * Handle JSpinner changes.
 	 *
@@ -1199,25 +1430,28 @@ public class JapaneseVocabEditorController implements ActionListener, ChangeList
 			return;
 		}
 		SortMode pick = getSortMode();
-		// Update the category list
+		// Update the category list, which the model keeps sorted and unique
 		List<String> cats = model.getCategories();
 		Object selectedItem = vocabEditor.listSelectorCategoryLesson.getList().getSelectedValue();
 		modelCategories.clear();
-		Collections.sort(cats);
 		for (String cat : cats) {
-			if (!modelCategories.contains(cat)) {
-				modelCategories.addElement(cat);
-			}
+			modelCategories.addElement(cat);
 		}
 		if (selectedItem != null && SortMode.Categories == pick) {
 			vocabEditor.listSelectorCategoryLesson.getList().setSelectedValue(selectedItem, true);
 		}
 
-		// Update the lesson list
-		List<Integer> lessons = model.getLessons();
-		Collections.sort(lessons);
+		// Update the lesson list, which the model keeps sorted. Listing the
+		// lessons reads in every category, so wait until they are wanted.
 		selectedItem = vocabEditor.listSelectorCategoryLesson.getList().getSelectedValue();
 		modelLessons.clear();
+		if (!model.isLoaded()) {
+			if (SortMode.Lessons == pick) {
+				readCategories(model.getCategories());
+			}
+			return;
+		}
+		List<Integer> lessons = model.getLessons();
 		for (Integer lesson : lessons) {
 			if (!modelLessons.contains(lessons)) {
 				modelLessons.addElement(lesson);
@@ -1256,7 +1490,20 @@ public class JapaneseVocabEditorController implements ActionListener, ChangeList
 			modelVocabulary.clear();
 			return;
 		}
-		ArrayList<VocabItem> items = model.getVocabItems(category);
+		// A category left unread when the file was opened is shown once it
+		// has been read in the background
+		if (!readCategories(Collections.singletonList(category))) {
+			modelVocabulary.clear();
+			return;
+		}
+		// Show the list with values according to preference, sorted by the
+		// value shown. The model keeps the sorted list until the category
+		// changes.
+		VocabDisplayMode mode = ((VocabDisplayMode) vocabEditor.listSelectorVocabulary.getSelector().getSelectedItem());
+		if (mode == null) {
+			mode = VocabDisplayMode.English;
+		}
+		List<VocabItem> items = model.getVocabItems(category, mode.getComparator());
 		if (items == null) {
 			return;
 		}
@@ -1264,44 +1511,8 @@ public class JapaneseVocabEditorController implements ActionListener, ChangeList
 		Object selectedItem = vocabEditor.listSelectorVocabulary.getList().getSelectedValue();
 		// TODO get selected indices
 		int selectedIndex = vocabEditor.listSelectorVocabulary.getList().getSelectedIndex();
-		vocabulary = items;
-		modelVocabulary.clear();
-		// Sort vocabulary
-		// TODO should I sort differently depending on display mode?
-		Collections.sort(vocabulary, new EnglishComparator());
-		// Populate list with the English words
-		VocabDisplayMode mode = ((VocabDisplayMode) vocabEditor.listSelectorVocabulary.getSelector().getSelectedItem());
-		for (VocabItem item : vocabulary) {
-			// Display value according to preference
-			switch (mode) {
-				case English:
-					modelVocabulary.addElement(item.getEnglish());
-					break;
-				case Romaji:
-					String romaji = item.getRomaji();
-					if (romaji.isEmpty()) {
-						romaji = "<" + item.getEnglish() + ">";
-					}
-					modelVocabulary.addElement(romaji);
-					break;
-				case Kana:
-					String kana = item.getKana();
-					// Substitue missing kana
-					if (kana.isEmpty()) {
-						kana = "<" + item.getEnglish() + ">";
-					}
-					modelVocabulary.addElement(kana);
-					break;
-				case Kanji:
-					String kanji = item.getKanji();
-					// Don't want to show empty field for missing kanji
-					if (kanji.isEmpty()) {
-						kanji = "<" + item.getEnglish() + ">";
-					}
-					modelVocabulary.addElement(kanji);
-					break;
-			}
-		}
+		vocabulary = vocabFilter.filter(items, getFilterText(), model);
+		modelVocabulary.setItems(vocabulary, mode);
 		if (selectedItem != null) {
 			vocabEditor.listSelectorVocabulary.getList().setSelectedValue(selectedItem, true);
 			// Check if selection was successful
@@ -1328,14 +1539,15 @@ public class JapaneseVocabEditorController implements ActionListener, ChangeList
 		if (model == null || lesson < 0) {
 			return;
 		}
+		if (!readCategories(model.getCategories())) {
+			modelVocabulary.clear();
+			return;
+		}
 		final JList list = vocabEditor.listSelectorCategoryLesson.getList();
 		// Try to maintain selection
 		Object selectedItem = list.getSelectedValue();
-		modelVocabulary.clear();
-		vocabulary = model.getVocabItems(lesson);
-		for (VocabItem item : vocabulary) {
-			modelVocabulary.addElement(item.getEnglish());
-		}
+		vocabulary = vocabFilter.filter(model.getVocabItems(lesson), getFilterText(), model);
+		modelVocabulary.setItems(vocabulary, VocabDisplayMode.English);
 		if (selectedItem != null) {
 			list.setSelectedValue(selectedItem, true);
 		}
@@ -1415,4 +1627,238 @@ public class JapaneseVocabEditorController implements ActionListener, ChangeList
 		}
 
 	}
+
+	/**
+	 * Reads a vocabulary file in the background, publishing progress messages
+	 * for the status bar. It can be cancelled while reading.
+	 */
+	private class LoadWorker extends SwingWorker<VocabModel, String> {
+		/**
+		 * The file being read.
+		 */
+		private final File file;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param file the file to read.
+		 */
+		LoadWorker(File file) {
+			this.file = file;
+		}
+
+		@Override
+		protected VocabModel doInBackground() throws Exception {
+			return vocabIo.readFile(file, new JsonVocabIO.ProgressListener() {
+				@Override
+				public boolean progress(long bytesRead, long totalBytes, int categories, int items) {
+					int percent = totalBytes > 0
+							? (int) Math.min(100, bytesRead * 100 / totalBytes) : 0;
+					setProgress(percent);
+					publish(String.format("Opening %s: %d%% (%d categories, %d vocabulary), Esc to cancel",
+							file.getName(), percent, categories, items));
+					return !isCancelled();
+				}
+			});
+		}
+
+		@Override
+		protected void process(List<String> chunks) {
+			if (!isCancelled() && loadWorker == this) {
+				setStatusText(chunks.get(chunks.size() - 1));
+			}
+		}
+
+		@Override
+		protected void done() {
+			// A newer read may have replaced this one
+			if (loadWorker != this) {
+				return;
+			}
+			loadWorker = null;
+			vocabEditor.listSelectorCategoryLesson.getList().setEnabled(true);
+			if (isCancelled()) {
+				setStatusText("Opening " + file.getName() + " was cancelled", 3000);
+			}
+			else {
+				try {
+					VocabModel newModel = get();
+					if (newModel != null) {
+						setOpenedModel(newModel, file);
+						return;
+					}
+					setStatusText("Could not open " + file.getName(), 3000);
+				}
+				catch (InterruptedException ex) {
+					logger.log(Level.WARNING, "Interrupted opening file: {0}", file);
+				}
+				catch (ExecutionException ex) {
+					setStatusText(ex.getCause().getLocalizedMessage(), 3000);
+				}
+			}
+			// Go back to the model that was already open
+			setVocabControlStates(model != null
+					&& !vocabEditor.listSelectorCategoryLesson.getList().isSelectionEmpty());
+		}
+	}
+
+	/**
+	 * Reads categories that were left unread when their file was opened in
+	 * the background, then adds them to the model and shows them. A failure
+	 * is reported instead of showing the categories.
+	 */
+	private class CategoryReadWorker extends SwingWorker<Void, Void> {
+		/**
+		 * The model the categories are in.
+		 */
+		private final VocabModel readModel;
+		private final List<String> names;
+		private final Runnable then;
+		private final Callable<Void> reader;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param readModel the model the categories are in.
+		 * @param names the categories to read.
+		 */
+		CategoryReadWorker(VocabModel readModel, List<String> names) {
+			this(readModel, names, null);
+		}
+
+		/**
+		 * Constructor.
+		 *
+		 * @param readModel the model the categories are in.
+		 * @param names the categories to read.
+		 * @param then what to do once they are read in, instead of showing
+		 * them.
+		 */
+		CategoryReadWorker(VocabModel readModel, List<String> names, Runnable then) {
+			this.readModel = readModel;
+			this.names = names;
+			this.then = then;
+			this.reader = readModel.createCategoryReader(names);
+		}
+
+		@Override
+		protected Void doInBackground() throws Exception {
+			return reader.call();
+		}
+
+		@Override
+		protected void done() {
+			// Another file may have been opened since
+			if (model != readModel) {
+				return;
+			}
+			readingCategories.removeAll(names);
+			try {
+				get();
+				for (String name : names) {
+					model.loadCategory(name);
+				}
+			}
+			catch (InterruptedException ex) {
+				logger.log(Level.WARNING, "Interrupted reading categories: {0}", names);
+				return;
+			}
+			catch (ExecutionException ex) {
+				showReadError(ex.getCause());
+				return;
+			}
+			catch (IOException | ParseException ex) {
+				showReadError(ex);
+				return;
+			}
+			setStatusText(" ");
+			if (then != null) {
+				then.run();
+				return;
+			}
+			if (SortMode.Lessons == getSortMode()) {
+				updateCategoryLessonList();
+			}
+			updateVocabulary();
+		}
+
+		private void showReadError(Throwable ex) {
+			setStatusText("Could not read vocabulary", 3000);
+			JOptionPane.showMessageDialog(null, "Could not read the vocabulary of "
+					+ names + ": " + ex.getLocalizedMessage());
+		}
+	}
+
+	/**
+	 * Looks for near duplicates in a snapshot of the model and writes up the
+	 * report, one group to a paragraph, then shows it.
+	 */
+	private class NearDuplicatesWorker extends SwingWorker<String, Void> {
+		private final VocabSnapshot snapshot;
+		private int groupCount = 0;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param snapshot a snapshot of the model that copied all categories.
+		 */
+		NearDuplicatesWorker(VocabSnapshot snapshot) {
+			this.snapshot = snapshot;
+		}
+
+		@Override
+		protected String doInBackground() throws Exception {
+			try {
+				long start = System.currentTimeMillis();
+				List<List<VocabItem>> groups = snapshot.findNearDuplicates(NEAR_DUPLICATE_DISTANCE);
+				if (logger.isLoggable(Level.INFO)) {
+					logger.log(Level.INFO, "Found {0} groups of near duplicates in {1} ms",
+							new Object[]{groups.size(), System.currentTimeMillis() - start});
+				}
+				groupCount = groups.size();
+				StringBuilder sb = new StringBuilder();
+				for (List<VocabItem> group : groups) {
+					if (sb.length() > 0) {
+						sb.append('\n');
+					}
+					for (VocabItem item : group) {
+						sb.append(item.getRomaji()).append(" (").append(item.getEnglish())
+								.append(") [").append(snapshot.getCategoryName(item)).append("]\n");
+					}
+				}
+				return sb.toString();
+			}
+			finally {
+				snapshot.release();
+			}
+		}
+
+		@Override
+		protected void done() {
+			nearDuplicatesWorker = null;
+			setStatusText(" ");
+			String report;
+			try {
+				report = get();
+			}
+			catch (InterruptedException ex) {
+				logger.log(Level.WARNING, "Interrupted looking for near duplicates");
+				return;
+			}
+			catch (ExecutionException ex) {
+				setStatusText("Could not look for near duplicates: "
+						+ ex.getCause().getLocalizedMessage(), 3000);
+				return;
+			}
+			if (groupCount == 0) {
+				JOptionPane.showMessageDialog(null, "No near duplicates found.");
+				return;
+			}
+			JTextArea text = new JTextArea(report, 20, 50);
+			text.setEditable(false);
+			text.setCaretPosition(0);
+			JOptionPane.showMessageDialog(null, new JScrollPane(text),
+					groupCount + " Groups of Near Duplicates", JOptionPane.INFORMATION_MESSAGE);
+		}
+	}
 }
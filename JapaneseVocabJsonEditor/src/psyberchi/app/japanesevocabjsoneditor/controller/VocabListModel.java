@@ -0,0 +1,184 @@
+/*
+ *  VocabListModel.java
+ *
+ *  GNU GPL License.
+ */
+package psyberchi.app.japanesevocabjsoneditor.controller;
+
+import java.util.Collections;
+import java.util.List;
+import javax.swing.AbstractListModel;
+import psyberchi.app.japanesevocabjsoneditor.controller.JapaneseVocabEditorController.VocabDisplayMode;
+import psyberchi.app.japanesevocabjsoneditor.model.VocabItem;
+
+/**
+ * A ListModel for the vocabulary JList that wraps a list of VocabItem
+ * directly. The text shown for each item is worked out from the display mode
+ * only when the list asks for it, and replacing the items fires one set of
+ * events rather than one per item.
+ *
+ * @author Kendall Conrad
+ */
+public class VocabListModel extends AbstractListModel<String> {
+	private static final long serialVersionUID = 1L;
+	/**
+	 * The vocabulary shown in the list.
+	 */
+	private List<VocabItem> items = Collections.emptyList();
+	/**
+	 * The number of items when they were set, which is what the JList has
+	 * been told.
+	 */
+	private int size = 0;
+	/**
+	 * Which value of the vocabulary is shown.
+	 */
+	private VocabDisplayMode mode = VocabDisplayMode.English;
+
+	/**
+	 * Removes all of the items from the list.
+	 */
+	public void clear() {
+		setItems(Collections.<VocabItem>emptyList(), mode);
+	}
+
+	/**
+	 * Returns whether any item in the list is shown with the given text.
+	 *
+	 * @param value the text to look for.
+	 * @return
+	 */
+	public boolean contains(Object value) {
+		return indexOf(value) > -1;
+	}
+
+	/**
+	 * Returns whether an item in the list other than the given one has the
+	 * given English, whatever value is shown.
+	 *
+	 * @param english the English to look for.
+	 * @param except the item to skip, such as the one being edited.
+	 * @return
+	 */
+	public boolean containsEnglish(String english, VocabItem except) {
+		for (VocabItem item : items) {
+			if (item != except && english.equals(item.getEnglish())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the text shown for the item at the given index.
+	 *
+	 * @param index
+	 * @return
+	 */
+	@Override
+	public String getElementAt(int index) {
+		return getDisplayValue(items.get(index), mode);
+	}
+
+	/**
+	 * Returns the display mode used for the list.
+	 *
+	 * @return
+	 */
+	public VocabDisplayMode getDisplayMode() {
+		return mode;
+	}
+
+	@Override
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the VocabItem at the given index.
+	 *
+	 * @param index
+	 * @return
+	 */
+	public VocabItem getVocabItem(int index) {
+		return items.get(index);
+	}
+
+	/**
+	 * Returns the index of the first item shown with the given text.
+	 *
+	 * @param value the text to look for.
+	 * @return the index, -1 if not found.
+	 */
+	public int indexOf(Object value) {
+		if (value == null) {
+			return -1;
+		}
+		for (int a = 0; a < items.size(); a++) {
+			if (value.equals(getDisplayValue(items.get(a), mode))) {
+				return a;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Replaces the items shown in the list. The given list is used as is, not
+	 * copied, so it must not change while it is shown. Events are fired from
+	 * the number of items last set, so the JList drops rows that are gone
+	 * even if the same list is set again after changing.
+	 *
+	 * @param newItems the vocabulary to show.
+	 * @param newMode which value of the vocabulary to show.
+	 */
+	public void setItems(List<VocabItem> newItems, VocabDisplayMode newMode) {
+		int oldSize = size;
+		items = (newItems == null) ? Collections.<VocabItem>emptyList() : newItems;
+		mode = (newMode == null) ? VocabDisplayMode.English : newMode;
+		int newSize = items.size();
+		size = newSize;
+		// Let the JList adjust its selection for rows that went away or came
+		if (newSize < oldSize) {
+			fireIntervalRemoved(this, newSize, oldSize - 1);
+		}
+		else if (newSize > oldSize) {
+			fireIntervalAdded(this, oldSize, newSize - 1);
+		}
+		int common = Math.min(oldSize, newSize);
+		if (common > 0) {
+			fireContentsChanged(this, 0, common - 1);
+		}
+	}
+
+	/**
+	 * Returns the text to show for a VocabItem in the given display mode. A
+	 * missing romaji, kana or kanji value is substituted with the English in
+	 * angle brackets.
+	 *
+	 * @param item
+	 * @param mode
+	 * @return
+	 */
+	public static String getDisplayValue(VocabItem item, VocabDisplayMode mode) {
+		String value;
+		switch (mode) {
+			case Romaji:
+				value = item.getRomaji();
+				break;
+			case Kana:
+				value = item.getKana();
+				break;
+			case Kanji:
+				value = item.getKanji();
+				break;
+			case English:
+			default:
+				return item.getEnglish();
+		}
+		// Don't want to show empty field for missing values
+		if (value.isEmpty()) {
+			value = "<" + item.getEnglish() + ">";
+		}
+		return value;
+	}
+}
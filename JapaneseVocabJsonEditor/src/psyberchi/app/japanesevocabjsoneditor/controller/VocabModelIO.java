@@ -13,13 +13,17 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
+import javax.swing.SwingWorker;
 import org.json.simple.parser.ParseException;
 import psyberchi.app.japanesevocabjsoneditor.model.JsonVocabIO;
+import psyberchi.app.japanesevocabjsoneditor.model.VocabJournal;
 import psyberchi.app.japanesevocabjsoneditor.model.VocabModel;
+import psyberchi.app.japanesevocabjsoneditor.model.VocabSnapshot;
 
 /**
  * @author Kendall Conrad
@@ -48,6 +52,49 @@ public class VocabModelIO {
 	 * Property change support object.
 	 */
 	private PropertyChangeSupport pcs;
+	/**
+	 * Whether saves go through a temporary file that is moved over the target.
+	 */
+	private boolean atomicSave = true;
+	/**
+	 * Whether the previous version of a file is kept as a .bak on save.
+	 */
+	private boolean keepBackup = false;
+	/**
+	 * Whether unmodified categories are copied from the previous file when
+	 * saving instead of being written out again.
+	 */
+	private boolean incrementalSave = true;
+	/**
+	 * Whether the vocabulary of a category is only read in from the file when
+	 * the category is first used.
+	 */
+	private boolean lazyLoading = false;
+	/**
+	 * Whether the vocabulary of files read is kept in column storage.
+	 */
+	private boolean columnarStorage = false;
+	/**
+	 * Whether the text, readings and romaji of files read are indexed for
+	 * searching.
+	 */
+	private boolean textIndexing = false;
+	/**
+	 * The save running in the background, null if there is none.
+	 */
+	private SaveWorker saveWorker = null;
+	/**
+	 * Whether changes are recorded in a journal next to the open file.
+	 */
+	private boolean journalEnabled = true;
+	/**
+	 * The journal of the open file, null if there is none.
+	 */
+	private VocabJournal journal = null;
+	/**
+	 * The model the journal is listening to.
+	 */
+	private VocabModel journalModel = null;
 
 	public VocabModelIO() {
 		pcs = new PropertyChangeSupport(this);
@@ -70,6 +117,11 @@ public class VocabModelIO {
 		if (!handleModifiedFile(model)) {
 			return false;
 		}
+		// Saved or not wanted, either way the journal is done with
+		stopJournal(true);
+		if (model != null) {
+			model.close();
+		}
 		logger.log(Level.INFO, "Successfully closed file: {0}",
 				(fileOpened == null ? "" : fileOpened.getAbsolutePath()));
 		setFileOpened(null);
@@ -97,6 +149,8 @@ public class VocabModelIO {
 	 * should stop.
 	 */
 	private boolean handleModifiedFile(VocabModel model) {
+		// A save may still be running that clears the modified flag
+		waitForSave();
 		// Only care if the current file is modified
 		if (isFileModified()) {
 			// Ask the user what to do
@@ -162,11 +216,76 @@ public class VocabModelIO {
 		if (!handleModifiedFile(model)) {
 			return null;
 		}
+		newModel = readFile(file, null);
+		if (newModel != null) {
+			setFileLoaded(file, newModel);
+		}
+		return newModel;
+	}
+
+	/**
+	 * Gives the user the chance to save the current file if it is modified,
+	 * before another file is opened in its place.
+	 *
+	 * @param model the currently open model.
+	 * @return true if the other file can be opened, false if the user
+	 * cancelled or the save failed.
+	 */
+	public boolean confirmOpen(VocabModel model) {
+		return handleModifiedFile(model);
+	}
+
+	/**
+	 * Asks the user for a file to open, first giving them the chance to save
+	 * the current file if it is modified.
+	 *
+	 * @param model the currently open model.
+	 * @return the chosen file, null if the user cancelled.
+	 */
+	public File chooseOpenFile(VocabModel model) {
+		if (!confirmOpen(model)) {
+			return null;
+		}
+		int resp = jFileChooserOpen.showOpenDialog(null);
+		if (JFileChooser.APPROVE_OPTION == resp) {
+			return jFileChooserOpen.getSelectedFile();
+		}
+		return null;
+	}
+
+	/**
+	 * Reads a {@link VocabModel} from a file without changing which file is
+	 * open, so it can be called from a background thread. Once the model is
+	 * in use {@link #setFileLoaded(File, VocabModel)} should be called.
+	 *
+	 * @param file the file to read.
+	 * @param listener receives progress while reading, may be null.
+	 * @return the model read in, null if it could not be read or reading was
+	 * cancelled by the listener.
+	 * @throws Exception
+	 */
+	public VocabModel readFile(File file, JsonVocabIO.ProgressListener listener) throws Exception {
 		try {
-			setFileOpened(file);
-			newModel = JsonVocabIO.readJsonFile(getFileOpened());
-			setFileModified(false);
-			return newModel;
+			VocabModel model = isLazyLoading()
+					? JsonVocabIO.readJsonFileLazy(file, listener)
+					: JsonVocabIO.readVocabFile(file, listener);
+			// Changes left in the journal are replayed on the event thread,
+			// so read in any categories they could touch here
+			if (model != null && isJournalEnabled()
+					&& VocabJournal.getJournalFile(file).isFile()) {
+				model.loadAll();
+			}
+			if (model != null && isColumnarStorage()) {
+				model.setColumnarStorage(true);
+			}
+			// Index here, off the event thread, unless that would read in
+			// what lazy loading left unread
+			if (model != null && isTextIndexing() && model.isLoaded()) {
+				model.buildTextIndex();
+				model.buildReadingIndex();
+				model.buildRomajiIndex();
+			}
+			return model;
 		}
 		catch (FileNotFoundException ex) {
 			logger.log(Level.SEVERE, null, ex);
@@ -246,8 +365,20 @@ public class VocabModelIO {
 		if (file == null) {
 			return saveAsFile(model);
 		}
-		if (file.getParentFile().canWrite()) {
-			JsonVocabIO.writeJsonFile(file, model);
+		waitForSave();
+		if (file.getAbsoluteFile().getParentFile().canWrite()) {
+			VocabJournal marked = journal;
+			long mark = (journal == null) ? 0 : journal.getPosition();
+			VocabSnapshot snapshot = model.createSnapshot(isAtomicSave() && isIncrementalSave());
+			if (!writeSnapshot(file, snapshot)) {
+				JOptionPane.showMessageDialog(null,
+						"Could not write the file. It has not been changed.",
+						"Cannot save",
+						JOptionPane.ERROR_MESSAGE);
+				return false;
+			}
+			model.markSaved(snapshot);
+			journalSaved(file, model, marked, mark);
 			setFileModified(false);
 			return true;
 		}
@@ -258,6 +389,289 @@ public class VocabModelIO {
 		return false;
 	}
 
+	/**
+	 * Saves the vocabulary model to the open file on a background thread. A
+	 * snapshot of the model is taken first so it can keep being edited while
+	 * the file is written. Once written the file is marked as not modified,
+	 * which fires {@link #PROP_FILE_MODIFIED_CHANGED}, unless the model was
+	 * changed during the save. If no file is open the user is asked for one
+	 * and the save is done right away.
+	 *
+	 * @param model
+	 * @return true if the save was started, or done, false otherwise.
+	 */
+	public boolean saveFileInBackground(VocabModel model) {
+		if (model == null) {
+			logger.log(Level.INFO, "saveFileInBackground: model null");
+			return false;
+		}
+		File file = getFileOpened();
+		if (file == null) {
+			return saveAsFile(model);
+		}
+		if (isSaving()) {
+			logger.log(Level.INFO, "Save of ''{0}'' is already running.", file);
+			return false;
+		}
+		if (!file.getAbsoluteFile().getParentFile().canWrite()) {
+			JOptionPane.showMessageDialog(null,
+					"Cannot write to chosen directory.",
+					"Cannot save",
+					JOptionPane.ERROR_MESSAGE);
+			return false;
+		}
+		saveWorker = new SaveWorker(file, model, model.createSnapshot(isAtomicSave() && isIncrementalSave()),
+				journal, (journal == null) ? 0 : journal.getPosition());
+		saveWorker.execute();
+		return true;
+	}
+
+	/**
+	 * Writes a snapshot of a model to a file with the current save settings.
+	 * Does not touch the model so it can be called from any thread.
+	 *
+	 * @param file
+	 * @param snapshot
+	 * @return true if written, false otherwise.
+	 */
+	private boolean writeSnapshot(File file, VocabSnapshot snapshot) {
+		try {
+			if (!isAtomicSave()) {
+				// Categories not read in are read from the file being overwritten
+				snapshot.read();
+				return JsonVocabIO.writeJsonFile(file, snapshot);
+			}
+			if (snapshot.getReusedCategoryCount() > 0 || isIncrementalSave()) {
+				return JsonVocabIO.writeJsonFileIncremental(file, snapshot, isKeepBackup());
+			}
+			return JsonVocabIO.writeJsonFileAtomic(file, snapshot, isKeepBackup());
+		}
+		catch (IOException ex) {
+			logger.log(Level.SEVERE, "Could not read vocabulary to save: {0}", ex.getLocalizedMessage());
+			return false;
+		}
+		finally {
+			snapshot.release();
+		}
+	}
+
+	/**
+	 * Starts recording the changes made to a model in the journal of its file.
+	 *
+	 * @param file the vocabulary file.
+	 * @param model the model read from or saved to the file.
+	 * @param keepRecords whether to keep the records already in the journal.
+	 */
+	private void startJournal(File file, VocabModel model, boolean keepRecords) {
+		stopJournal(false);
+		if (!isJournalEnabled()) {
+			return;
+		}
+		try {
+			journal = new VocabJournal(VocabJournal.getJournalFile(file), file, !keepRecords);
+			journalModel = model;
+			model.addPropertyChangeListener(journal);
+		}
+		catch (IOException ex) {
+			journal = null;
+			logger.log(Level.WARNING, "Could not open journal for ''{0}'': {1}",
+					new Object[]{file, ex.getLocalizedMessage()});
+		}
+	}
+
+	/**
+	 * Stops recording changes in the journal.
+	 *
+	 * @param delete whether to remove the journal file too.
+	 */
+	private void stopJournal(boolean delete) {
+		if (journal == null) {
+			return;
+		}
+		journalModel.removePropertyChangeListener(journal);
+		if (delete) {
+			journal.delete();
+		}
+		else {
+			journal.close();
+		}
+		journal = null;
+		journalModel = null;
+	}
+
+	/**
+	 * Drops the journal records that are now in the saved file. When the
+	 * model was saved to a different file the journal moves to that file.
+	 *
+	 * @param file the file saved to.
+	 * @param model the model saved.
+	 * @param marked the journal when the model was snapshot.
+	 * @param mark the journal position when the model was snapshot.
+	 */
+	private void journalSaved(File file, VocabModel model, VocabJournal marked, long mark) {
+		if (journal != null && journal == marked
+				&& journal.getFile().equals(VocabJournal.getJournalFile(file))) {
+			try {
+				journal.compact(mark);
+			}
+			catch (IOException ex) {
+				logger.log(Level.WARNING, "Could not compact journal: {0}", ex.getLocalizedMessage());
+			}
+		}
+		else if (file.equals(getFileOpened())) {
+			stopJournal(true);
+			startJournal(file, model, false);
+		}
+	}
+
+	/**
+	 * Returns whether a background save is running.
+	 *
+	 * @return
+	 */
+	public boolean isSaving() {
+		return saveWorker != null;
+	}
+
+	/**
+	 * Blocks until a running background save has finished and its result has
+	 * been applied.
+	 */
+	public void waitForSave() {
+		if (saveWorker != null) {
+			saveWorker.finish();
+		}
+	}
+
+	/**
+	 * Returns whether saves are written to a temporary file first and then
+	 * atomically moved over the target file.
+	 *
+	 * @return the atomicSave
+	 */
+	public boolean isAtomicSave() {
+		return atomicSave;
+	}
+
+	/**
+	 * @param atomicSave the atomicSave to set
+	 */
+	public void setAtomicSave(boolean atomicSave) {
+		this.atomicSave = atomicSave;
+	}
+
+	/**
+	 * Returns whether the previous version of a file is kept as a .bak file
+	 * when doing an atomic save.
+	 *
+	 * @return the keepBackup
+	 */
+	public boolean isKeepBackup() {
+		return keepBackup;
+	}
+
+	/**
+	 * @param keepBackup the keepBackup to set
+	 */
+	public void setKeepBackup(boolean keepBackup) {
+		this.keepBackup = keepBackup;
+	}
+
+	/**
+	 * Returns whether saves copy the unmodified categories from the file the
+	 * model was read from or last saved to. Only atomic saves are done this
+	 * way, as the categories are copied from the file being replaced, so this
+	 * has no effect while {@link #isAtomicSave()} is off.
+	 *
+	 * @return the incrementalSave
+	 */
+	public boolean isIncrementalSave() {
+		return incrementalSave;
+	}
+
+	/**
+	 * @param incrementalSave the incrementalSave to set
+	 */
+	public void setIncrementalSave(boolean incrementalSave) {
+		this.incrementalSave = incrementalSave;
+	}
+
+	/**
+	 * Returns whether files are opened without reading the vocabulary of
+	 * their categories, which is read in as each category is first used.
+	 * Large files open faster and take less memory when only some of their
+	 * categories are looked at.
+	 *
+	 * @return the lazyLoading
+	 */
+	public boolean isLazyLoading() {
+		return lazyLoading;
+	}
+
+	/**
+	 * @param lazyLoading the lazyLoading to set
+	 */
+	public void setLazyLoading(boolean lazyLoading) {
+		this.lazyLoading = lazyLoading;
+	}
+
+	/**
+	 * Returns whether the vocabulary of files read is kept in column storage,
+	 * which takes much less memory for large files.
+	 *
+	 * @return the columnarStorage
+	 * @see VocabModel#setColumnarStorage(boolean)
+	 */
+	public boolean isColumnarStorage() {
+		return columnarStorage;
+	}
+
+	/**
+	 * @param columnarStorage the columnarStorage to set
+	 */
+	public void setColumnarStorage(boolean columnarStorage) {
+		this.columnarStorage = columnarStorage;
+	}
+
+	/**
+	 * Returns whether the text, readings and romaji of files read are indexed
+	 * as they are read, so searches and filters of large files are quick from
+	 * the start. Files read lazily are not indexed until first searched.
+	 *
+	 * @return the textIndexing
+	 * @see VocabModel#buildTextIndex()
+	 * @see VocabModel#buildReadingIndex()
+	 * @see VocabModel#buildRomajiIndex()
+	 */
+	public boolean isTextIndexing() {
+		return textIndexing;
+	}
+
+	/**
+	 * @param textIndexing the textIndexing to set
+	 */
+	public void setTextIndexing(boolean textIndexing) {
+		this.textIndexing = textIndexing;
+	}
+
+	/**
+	 * Returns whether the changes made to the open file are recorded in a
+	 * journal next to it, to be recovered the next time it is opened if the
+	 * program stops before they are saved.
+	 *
+	 * @return the journalEnabled
+	 */
+	public boolean isJournalEnabled() {
+		return journalEnabled;
+	}
+
+	/**
+	 * @param journalEnabled the journalEnabled to set
+	 */
+	public void setJournalEnabled(boolean journalEnabled) {
+		this.journalEnabled = journalEnabled;
+	}
+
 	/**
 	 * Returns whether the current file is modified.
 	 *
@@ -279,6 +693,33 @@ public class VocabModelIO {
 		}
 	}
 
+	/**
+	 * Makes the given file the open file once a model read from it with
+	 * {@link #readFile(File, JsonVocabIO.ProgressListener)} is in use. Changes
+	 * left in the file's journal by an earlier session are applied to the
+	 * model, in which case the file is marked as modified. A journal left for
+	 * another version of the file is thrown away.
+	 *
+	 * @param file
+	 * @param model the model read from the file.
+	 * @return the number of changes recovered from the journal.
+	 */
+	public int setFileLoaded(File file, VocabModel model) {
+		setFileOpened(file);
+		int recovered = 0;
+		if (isJournalEnabled()) {
+			try {
+				recovered = VocabJournal.replay(VocabJournal.getJournalFile(file), file, model);
+			}
+			catch (IOException ex) {
+				logger.log(Level.WARNING, "Could not read journal: {0}", ex.getLocalizedMessage());
+			}
+		}
+		startJournal(file, model, true);
+		setFileModified(recovered > 0);
+		return recovered;
+	}
+
 	/**
 	 * @return the fileOpened
 	 */
@@ -298,4 +739,73 @@ public class VocabModelIO {
 					oldFile, this.fileOpened));
 		}
 	}
+
+	/**
+	 * Writes a snapshot of the model on a background thread.
+	 */
+	private class SaveWorker extends SwingWorker<Boolean, Void> {
+		private final File file;
+		private final VocabModel model;
+		private final VocabSnapshot snapshot;
+		/**
+		 * The journal and its position when the snapshot was taken.
+		 */
+		private final VocabJournal marked;
+		private final long mark;
+
+		SaveWorker(File file, VocabModel model, VocabSnapshot snapshot,
+				VocabJournal marked, long mark) {
+			this.file = file;
+			this.model = model;
+			this.snapshot = snapshot;
+			this.marked = marked;
+			this.mark = mark;
+		}
+
+		@Override
+		protected Boolean doInBackground() throws Exception {
+			return writeSnapshot(file, snapshot);
+		}
+
+		@Override
+		protected void done() {
+			finish();
+		}
+
+		/**
+		 * Waits for the write and applies its result. Only the first call,
+		 * from either {@link #done()} or {@link #waitForSave()}, does anything.
+		 */
+		void finish() {
+			if (saveWorker != this) {
+				return;
+			}
+			boolean saved = false;
+			try {
+				saved = get();
+			}
+			catch (InterruptedException | ExecutionException ex) {
+				logger.log(Level.SEVERE, "Problem saving file: {0}", ex.getLocalizedMessage());
+			}
+			saveWorker = null;
+			if (!saved) {
+				JOptionPane.showMessageDialog(null,
+						"Could not write the file. It has not been changed.",
+						"Cannot save",
+						JOptionPane.ERROR_MESSAGE);
+				return;
+			}
+			// Categories edited during the save stay modified
+			model.markSaved(snapshot);
+			journalSaved(file, model, marked, mark);
+			if (file != getFileOpened()
+					|| model.getModificationCount() != snapshot.getModificationCount()) {
+				// Edits made during the save are not in the file
+				logger.log(Level.INFO, "Model changed while saving ''{0}'', still modified.",
+						file);
+				return;
+			}
+			setFileModified(false);
+		}
+	}
 }
@@ -0,0 +1,532 @@
+/*
+ *  BinaryVocabIO.java
+ *
+ *  GNU GPL License.
+ */
+package psyberchi.app.japanesevocabjsoneditor.model;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes a compact binary copy of a {@link VocabModel}, kept in the
+ * user's cache directory as a cache that is faster to load. The JSON file
+ * stays the source of truth; the cache records the path, length and
+ * modification time of the JSON file it was made from, and checksums of its
+ * first and last blocks, and is ignored once they no longer match.
+ * <pre>
+ * int     magic "JVC1"
+ * int     version
+ * long    JSON file length
+ * long    JSON file modification time
+ * long    CRC32s of the first and last blocks of the JSON file
+ * varint  byte length, then the UTF-8 absolute path of the JSON file
+ * varint  string count, then each string as a varint byte length and UTF-8
+ * data    per category, each item as varint string indexes of en, ro, kn
+ *         and kj followed by a zigzag varint lesson
+ * dir     varint category count, then per category a varint name index,
+ *         varint item count, long data offset, and longs for the category's
+ *         byte range in the JSON file
+ * long    offset of dir
+ * int     CRC32 of everything before it
+ * </pre>
+ * Every string is written once, so repeated values share one String when
+ * read back.
+ *
+ * Each time a cache is written, the cache directory is cleaned up: caches of
+ * JSON files that no longer exist, caches not used for {@link #MAX_AGE} and
+ * leftover temporary files are removed. Then the least recently used caches
+ * are removed until the directory is under {@link #MAX_CACHE_SIZE}. A cache
+ * is marked used by setting its modification time when it is read.
+ *
+ * @author Kendall Conrad
+ */
+final class BinaryVocabIO {
+	private static final Logger logger = Logger.getLogger(BinaryVocabIO.class.getCanonicalName());
+	private static final int MAGIC = 0x4A564331;
+	private static final int VERSION = 2;
+	/**
+	 * Size of the fixed header fields before the path.
+	 */
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8;
+	/**
+	 * Size of the blocks at each end of the JSON file that are checksummed.
+	 */
+	private static final int HASH_BLOCK_SIZE = 64 * 1024;
+	/**
+	 * Size of the directory offset and checksum at the end.
+	 */
+	private static final int FOOTER_SIZE = 8 + 4;
+	/**
+	 * How long a cache is kept without being used, in ms.
+	 */
+	static final long MAX_AGE = 30L * 24 * 60 * 60 * 1000;
+	/**
+	 * The most bytes the caches together are left taking up.
+	 */
+	static final long MAX_CACHE_SIZE = 256L * 1024 * 1024;
+	/**
+	 * How old a temporary file has to be before it is taken to be left over
+	 * from a write that didn't finish, in ms.
+	 */
+	private static final long TEMP_MAX_AGE = 24L * 60 * 60 * 1000;
+
+	private BinaryVocabIO() {
+	}
+
+	/**
+	 * Returns the directory caches are kept in by default: the platform's
+	 * per user cache directory.
+	 *
+	 * @return
+	 */
+	static File getDefaultCacheDirectory() {
+		String os = System.getProperty("os.name", "");
+		String home = System.getProperty("user.home");
+		File base;
+		if (os.startsWith("Windows") && System.getenv("LOCALAPPDATA") != null) {
+			base = new File(System.getenv("LOCALAPPDATA"));
+		}
+		else if (os.startsWith("Mac")) {
+			base = new File(home, "Library/Caches");
+		}
+		else if (System.getenv("XDG_CACHE_HOME") != null) {
+			base = new File(System.getenv("XDG_CACHE_HOME"));
+		}
+		else {
+			base = new File(home, ".cache");
+		}
+		return new File(base, "JapaneseVocabJsonEditor");
+	}
+
+	/**
+	 * Returns the cache file used for a JSON vocabulary file. The name has a
+	 * hash of the file's path so files of the same name don't share one.
+	 *
+	 * @param jsonFile
+	 * @return
+	 */
+	static File getCacheFile(File jsonFile) {
+		File abs = jsonFile.getAbsoluteFile();
+		return new File(JsonVocabIO.getCacheDirectory(), abs.getName() + "-"
+				+ String.format("%08x", abs.getPath().hashCode()) + ".jvc");
+	}
+
+	/**
+	 * Returns a cheap hash of a file's contents, the CRC32s of its first and
+	 * last blocks. Together with the length and modification time it catches
+	 * a file changed without either of those changing.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	static long contentHash(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			long first = blockCrc(channel, 0, (int) Math.min(size, HASH_BLOCK_SIZE));
+			long last = blockCrc(channel, Math.max(0, size - HASH_BLOCK_SIZE),
+					(int) Math.min(size, HASH_BLOCK_SIZE));
+			return (first << 32) | last;
+		}
+	}
+
+	private static long blockCrc(FileChannel channel, long start, int length) throws IOException {
+		ByteBuffer block = ByteBuffer.allocate(length);
+		while (block.hasRemaining()) {
+			if (channel.read(block, start + block.position()) < 0) {
+				throw new IOException("File shorter than expected");
+			}
+		}
+		CRC32 crc = new CRC32();
+		crc.update(block.array(), 0, length);
+		return crc.getValue();
+	}
+
+	/**
+	 * Reads the cache of a JSON file if it is still up to date.
+	 *
+	 * @param jsonFile the JSON file.
+	 * @return the model, null if there is no usable cache.
+	 */
+	static VocabModel read(File jsonFile) {
+		File cacheFile = getCacheFile(jsonFile);
+		if (!cacheFile.isFile()) {
+			return null;
+		}
+		VocabSource source = VocabSource.of(jsonFile);
+		try {
+			byte[] bytes = Files.readAllBytes(cacheFile.toPath());
+			if (bytes.length < HEADER_SIZE + FOOTER_SIZE) {
+				throw new IOException("File too short");
+			}
+			ByteBuffer buf = ByteBuffer.wrap(bytes);
+			if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+				throw new IOException("Not a supported cache file");
+			}
+			if (buf.getLong() != source.getLength() || buf.getLong() != source.getLastModified()
+					|| buf.getLong() != contentHash(jsonFile)) {
+				logger.log(Level.INFO, "Cache ''{0}'' is out of date", cacheFile);
+				return null;
+			}
+			int pathLength = readVarint(buf);
+			String path = new String(bytes, buf.position(), pathLength, StandardCharsets.UTF_8);
+			buf.position(buf.position() + pathLength);
+			if (!path.equals(source.getFile().getPath())) {
+				logger.log(Level.INFO, "Cache ''{0}'' is of another file", cacheFile);
+				return null;
+			}
+			CRC32 crc = new CRC32();
+			crc.update(bytes, 0, bytes.length - 4);
+			if ((int) crc.getValue() != buf.getInt(bytes.length - 4)) {
+				throw new IOException("Checksum does not match");
+			}
+			String[] strings = new String[readVarint(buf)];
+			for (int a = 0; a < strings.length; a++) {
+				int length = readVarint(buf);
+				strings[a] = new String(bytes, buf.position(), length, StandardCharsets.UTF_8);
+				buf.position(buf.position() + length);
+			}
+			int dataStart = buf.position();
+			buf.position((int) buf.getLong(bytes.length - FOOTER_SIZE));
+			VocabModel model = new VocabModel();
+			Map<String, long[]> ranges = new HashMap<>();
+			int catCount = readVarint(buf);
+			for (int a = 0; a < catCount; a++) {
+				String name = strings[readVarint(buf)];
+				int itemCount = readVarint(buf);
+				long offset = buf.getLong();
+				long sourceStart = buf.getLong();
+				long sourceEnd = buf.getLong();
+				model.addCategory(name);
+				if (sourceStart >= 0) {
+					ranges.put(name, new long[]{sourceStart, sourceEnd});
+				}
+				int dirPosition = buf.position();
+				buf.position(dataStart + (int) offset);
+				for (int b = 0; b < itemCount; b++) {
+					model.addVocabItem(name, new VocabItem(
+							strings[readVarint(buf)],
+							strings[readVarint(buf)],
+							strings[readVarint(buf)],
+							strings[readVarint(buf)],
+							unzigzag(readVarint(buf))));
+				}
+				buf.position(dirPosition);
+			}
+			model.setSource(source, ranges);
+			// Keeps the cache from being evicted as unused
+			if (!cacheFile.setLastModified(System.currentTimeMillis())) {
+				logger.log(Level.FINE, "Could not mark cache ''{0}'' used", cacheFile);
+			}
+			logger.log(Level.INFO, "Read {0} categories and {1} vocabulary items from cache ''{2}''",
+					new Object[]{model.getCategoryCount(), model.getVocabCount(), cacheFile});
+			return model;
+		}
+		catch (IOException | RuntimeException ex) {
+			logger.log(Level.WARNING, "Could not read cache ''{0}'': {1}",
+					new Object[]{cacheFile, ex.toString()});
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the cache of a JSON file from a model just read from it. The
+	 * model must not be changed while it is written.
+	 *
+	 * @param jsonFile the JSON file the model was read from.
+	 * @param model the model.
+	 * @return true if written, false otherwise.
+	 */
+	static boolean write(File jsonFile, VocabModel model) {
+		VocabSource source = model.getSource();
+		File cacheFile = getCacheFile(jsonFile);
+		if (source == null || !source.isCurrent()) {
+			// Only a cache of the file as it is on disk is any use
+			return false;
+		}
+		File temp = null;
+		try {
+			// Number the strings first so the table can go before the data
+			Map<String, Integer> index = new LinkedHashMap<>();
+			List<VocabCategory> categories = new ArrayList<>(model.getCategoryObjects());
+			for (VocabCategory category : categories) {
+				indexString(index, category.getName());
+				for (VocabItem item : category.getItems()) {
+					indexString(index, item.getEnglish());
+					indexString(index, item.getRomaji());
+					indexString(index, item.getKana());
+					indexString(index, item.getKanji());
+				}
+			}
+			long hash = contentHash(jsonFile);
+			File dir = cacheFile.getParentFile();
+			if (!dir.isDirectory() && !dir.mkdirs()) {
+				throw new IOException("Could not create cache directory " + dir);
+			}
+			temp = File.createTempFile("." + cacheFile.getName() + ".", ".tmp", dir);
+			CRC32 crc = new CRC32();
+			try (CheckedCountingStream counted = new CheckedCountingStream(
+					new BufferedOutputStream(new FileOutputStream(temp)), crc);
+					DataOutputStream out = new DataOutputStream(counted)) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(source.getLength());
+				out.writeLong(source.getLastModified());
+				out.writeLong(hash);
+				byte[] path = source.getFile().getPath().getBytes(StandardCharsets.UTF_8);
+				writeVarint(out, path.length);
+				out.write(path);
+				writeVarint(out, index.size());
+				for (String s : index.keySet()) {
+					byte[] b = s.getBytes(StandardCharsets.UTF_8);
+					writeVarint(out, b.length);
+					out.write(b);
+				}
+				long dataStart = counted.getCount();
+				long[] offsets = new long[categories.size()];
+				for (int a = 0; a < categories.size(); a++) {
+					offsets[a] = counted.getCount() - dataStart;
+					for (VocabItem item : categories.get(a).getItems()) {
+						writeVarint(out, index.get(item.getEnglish()));
+						writeVarint(out, index.get(item.getRomaji()));
+						writeVarint(out, index.get(item.getKana()));
+						writeVarint(out, index.get(item.getKanji()));
+						writeVarint(out, zigzag(item.getLesson()));
+					}
+				}
+				long dirStart = counted.getCount();
+				writeVarint(out, categories.size());
+				for (int a = 0; a < categories.size(); a++) {
+					VocabCategory category = categories.get(a);
+					writeVarint(out, index.get(category.getName()));
+					writeVarint(out, category.size());
+					out.writeLong(offsets[a]);
+					out.writeLong(category.getSourceStart());
+					out.writeLong(category.getSourceEnd());
+				}
+				out.writeLong(dirStart);
+				out.flush();
+				// The checksum itself is not part of what it covers
+				counted.setChecking(false);
+				out.writeInt((int) crc.getValue());
+			}
+			Files.move(temp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			logger.log(Level.INFO, "Wrote cache ''{0}''", cacheFile);
+			evict(dir, cacheFile);
+			return true;
+		}
+		catch (IOException ex) {
+			logger.log(Level.WARNING, "Could not write cache ''{0}'': {1}",
+					new Object[]{cacheFile, ex.getLocalizedMessage()});
+			if (temp != null && temp.exists() && !temp.delete()) {
+				logger.log(Level.WARNING, "Could not remove temporary file ''{0}''", temp);
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Removes the caches in a directory that are no longer of use, then the
+	 * least recently used ones while the caches are over
+	 * {@link #MAX_CACHE_SIZE}.
+	 *
+	 * @param dir the cache directory.
+	 * @param keep the cache just written, which is never removed.
+	 */
+	static void evict(File dir, File keep) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		List<File> caches = new ArrayList<>();
+		long total = 0;
+		for (File file : files) {
+			String name = file.getName();
+			if (file.equals(keep) || !file.isFile()) {
+				continue;
+			}
+			if (name.startsWith(".") && name.endsWith(".tmp")) {
+				if (now - file.lastModified() > TEMP_MAX_AGE) {
+					deleteCache(file, "left over");
+				}
+			}
+			else if (name.endsWith(".jvc")) {
+				String path = readSourcePath(file);
+				if (path == null) {
+					deleteCache(file, "not a cache that can be read");
+				}
+				else if (!new File(path).isFile()) {
+					deleteCache(file, "of a file that is gone");
+				}
+				else if (now - file.lastModified() > MAX_AGE) {
+					deleteCache(file, "unused");
+				}
+				else {
+					caches.add(file);
+					total += file.length();
+				}
+			}
+		}
+		total += keep.length();
+		if (total <= MAX_CACHE_SIZE) {
+			return;
+		}
+		// Least recently used first
+		Collections.sort(caches, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				return Long.compare(f1.lastModified(), f2.lastModified());
+			}
+		});
+		for (File cache : caches) {
+			if (total <= MAX_CACHE_SIZE) {
+				break;
+			}
+			long length = cache.length();
+			if (deleteCache(cache, "over the size limit")) {
+				total -= length;
+			}
+		}
+	}
+
+	/**
+	 * Reads the path of the JSON file a cache was made from.
+	 *
+	 * @param cacheFile
+	 * @return the path, null if the file is not a cache that can be read.
+	 */
+	private static String readSourcePath(File cacheFile) {
+		try (FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer buf = ByteBuffer.allocate((int) Math.min(channel.size(), HEADER_SIZE + 8 * 1024));
+			while (buf.hasRemaining()) {
+				if (channel.read(buf) < 0) {
+					break;
+				}
+			}
+			buf.flip();
+			if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+				return null;
+			}
+			buf.position(HEADER_SIZE);
+			int length = readVarint(buf);
+			return new String(buf.array(), buf.position(), length, StandardCharsets.UTF_8);
+		}
+		catch (IOException | RuntimeException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Deletes a cache file, logging why.
+	 *
+	 * @param file
+	 * @param reason
+	 * @return true if deleted.
+	 */
+	private static boolean deleteCache(File file, String reason) {
+		if (file.delete()) {
+			logger.log(Level.INFO, "Removed cache ''{0}'', {1}", new Object[]{file, reason});
+			return true;
+		}
+		logger.log(Level.WARNING, "Could not remove cache ''{0}''", file);
+		return false;
+	}
+
+	private static void indexString(Map<String, Integer> index, String s) {
+		if (!index.containsKey(s)) {
+			index.put(s, index.size());
+		}
+	}
+
+	private static void writeVarint(DataOutputStream out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private static int readVarint(ByteBuffer buf) {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			byte b = buf.get();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new BufferUnderflowException();
+	}
+
+	private static int zigzag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private static int unzigzag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Counts the bytes written and adds them to a checksum.
+	 */
+	private static class CheckedCountingStream extends FilterOutputStream {
+		private final CRC32 crc;
+		private long count = 0;
+		private boolean checking = true;
+
+		CheckedCountingStream(OutputStream out, CRC32 crc) {
+			super(out);
+			this.crc = crc;
+		}
+
+		long getCount() {
+			return count;
+		}
+
+		void setChecking(boolean checking) {
+			this.checking = checking;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			if (checking) {
+				crc.update(b);
+			}
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			if (checking) {
+				crc.update(b, off, len);
+			}
+			count += len;
+		}
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ *  CategoryLoader.java
+ *
+ *  GNU GPL License.
+ */
+package psyberchi.app.japanesevocabjsoneditor.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Reads the vocabulary of categories that were left unread when their file
+ * was opened, from the byte ranges found by a {@link CategoryScanner}. The
+ * file is kept open until every category waiting on it has been read, so the
+ * categories are read from the version of the file that was scanned even if
+ * it has since been replaced by a save.
+ *
+ * @author Kendall Conrad
+ */
+class CategoryLoader {
+	private static final Logger logger = Logger.getLogger(CategoryLoader.class.getCanonicalName());
+	private final VocabSource source;
+	private FileChannel channel;
+	/**
+	 * Shares the Strings of all the categories read from the file.
+	 */
+	private final StringPool pool = new StringPool();
+	private final EntryParser parser = new EntryParser(pool);
+	/**
+	 * The number of categories not yet read.
+	 */
+	private int pending = 0;
+
+	/**
+	 * Opens a file for reading categories from.
+	 *
+	 * @param source the version of the file that was scanned.
+	 * @throws IOException
+	 */
+	CategoryLoader(VocabSource source) throws IOException {
+		this.source = source;
+		this.channel = FileChannel.open(source.getFile().toPath(), StandardOpenOption.READ);
+	}
+
+	/**
+	 * @return the file the categories are read from.
+	 */
+	File getFile() {
+		return source.getFile();
+	}
+
+	FileChannel getChannel() {
+		return channel;
+	}
+
+	StringPool getStringPool() {
+		return pool;
+	}
+
+	/**
+	 * Notes one more category waiting to be read.
+	 */
+	synchronized void register() {
+		pending++;
+	}
+
+	/**
+	 * Reads the vocabulary of a category. The file is closed once the last
+	 * category waiting on it has been read.
+	 *
+	 * @param name the name of the category.
+	 * @param start the start of the category's range.
+	 * @param end the end of the category's range.
+	 * @return the vocabulary read.
+	 * @throws IOException if the file is closed, has changed, or doesn't have
+	 * the category at the range.
+	 * @throws ParseException
+	 */
+	synchronized List<VocabItem> load(String name, long start, long end)
+			throws IOException, ParseException {
+		if (channel == null) {
+			throw new IOException("File is closed: " + source.getFile());
+		}
+		if (channel.size() != source.getLength()) {
+			throw new IOException("File changed since it was opened: " + source.getFile());
+		}
+		EntryParser.Content content = parser.parse(channel, start, end);
+		if (!name.equals(content.category)) {
+			throw new IOException("Category not found where expected: " + name);
+		}
+		if (--pending == 0) {
+			close();
+		}
+		return content.items;
+	}
+
+	/**
+	 * Closes the file. Categories not yet read can no longer be read.
+	 */
+	synchronized void close() {
+		if (channel == null) {
+			return;
+		}
+		pool.logStats(source.getFile());
+		try {
+			channel.close();
+		}
+		catch (IOException ex) {
+			logger.log(Level.WARNING, "Could not close ''{0}'': {1}",
+					new Object[]{source.getFile(), ex.getLocalizedMessage()});
+		}
+		channel = null;
+	}
+}
@@ -0,0 +1,257 @@
+/*
+ *  CategoryScanner.java
+ *
+ *  GNU GPL License.
+ */
+package psyberchi.app.japanesevocabjsoneditor.model;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.json.simple.parser.JSONParser;
+
+/**
+ * Finds where each category is in the bytes of a vocabulary file. The bytes
+ * are fed in as they are read, alongside the parser, so the file is only read
+ * once. The range of a category runs from the opening quote of its name to
+ * the closing bracket of its array, and the objects in the array are counted.
+ *
+ * The span of every top level entry is kept as well, whatever its value, so
+ * the entries can be parsed separately.
+ *
+ * Only the structure is followed. Multi-byte UTF-8 sequences never contain
+ * ASCII bytes, so the bytes can be scanned without decoding them.
+ *
+ * @author Kendall Conrad
+ */
+class CategoryScanner {
+	private static final Logger logger = Logger.getLogger(CategoryScanner.class.getCanonicalName());
+	/**
+	 * Byte offset of the next byte fed in.
+	 */
+	private long offset = 0;
+	/**
+	 * The current object/array nesting depth.
+	 */
+	private int depth = 0;
+	private boolean inString = false;
+	private boolean escape = false;
+	/**
+	 * Whether the next string in the top level object is a key.
+	 */
+	private boolean expectKey = false;
+	/**
+	 * Whether the current key's bytes are being collected.
+	 */
+	private boolean inKey = false;
+	private final ByteArrayOutputStream keyBytes = new ByteArrayOutputStream();
+	/**
+	 * The name of the top level entry being scanned, null if none.
+	 */
+	private String key = null;
+	private long keyStart = -1;
+	/**
+	 * Whether the value of the current entry is an array.
+	 */
+	private boolean isArray = false;
+	/**
+	 * The number of objects in the current entry's array so far.
+	 */
+	private int objectCount = 0;
+	private final Map<String, long[]> ranges = new HashMap<>();
+	/**
+	 * Names that appear more than once, which can't be given one range.
+	 */
+	private final Set<String> repeated = new HashSet<>();
+	/**
+	 * The {start, end} spans of all top level entries in file order, from
+	 * the opening quote of the key up to the comma or brace after the value.
+	 */
+	private final List<long[]> entries = new ArrayList<>();
+	/**
+	 * Start of the top level entry being scanned, -1 if none.
+	 */
+	private long entryStart = -1;
+	/**
+	 * Whether the top level object has been closed.
+	 */
+	private boolean complete = false;
+
+	/**
+	 * Scans the next bytes of the file.
+	 *
+	 * @param b
+	 * @param off
+	 * @param len
+	 */
+	void update(byte[] b, int off, int len) {
+		for (int a = off; a < off + len; a++) {
+			update(b[a]);
+		}
+	}
+
+	/**
+	 * Scans the next bytes of the file from a buffer, without moving its
+	 * position.
+	 *
+	 * @param buffer
+	 * @param from the index of the first byte.
+	 * @param to the index after the last byte.
+	 */
+	void update(ByteBuffer buffer, int from, int to) {
+		for (int a = from; a < to; a++) {
+			update(buffer.get(a));
+		}
+	}
+
+	/**
+	 * Scans the next byte of the file.
+	 *
+	 * @param b
+	 */
+	void update(int b) {
+		if (inString) {
+			if (escape) {
+				escape = false;
+			}
+			else if (b == '\\') {
+				escape = true;
+			}
+			else if (b == '"') {
+				inString = false;
+				if (inKey) {
+					inKey = false;
+					key = decodeKey();
+				}
+			}
+			if (inKey) {
+				keyBytes.write(b);
+			}
+			offset++;
+			return;
+		}
+		switch (b) {
+			case '"':
+				inString = true;
+				if (depth == 1 && expectKey) {
+					expectKey = false;
+					inKey = true;
+					keyStart = offset;
+					entryStart = offset;
+					keyBytes.reset();
+				}
+				break;
+			case '{':
+			case '[':
+				depth++;
+				if (depth == 1) {
+					expectKey = true;
+				}
+				else if (depth == 2 && key != null) {
+					isArray = (b == '[');
+					objectCount = 0;
+				}
+				else if (depth == 3 && isArray && b == '{') {
+					objectCount++;
+				}
+				break;
+			case '}':
+			case ']':
+				if (depth == 2 && key != null && isArray && b == ']') {
+					addRange(key, keyStart, offset + 1, objectCount);
+				}
+				else if (depth == 1) {
+					endEntry();
+					complete = (b == '}');
+				}
+				depth--;
+				break;
+			case ',':
+				if (depth == 1) {
+					endEntry();
+					expectKey = true;
+					key = null;
+					isArray = false;
+				}
+				break;
+			default:
+				break;
+		}
+		offset++;
+	}
+
+	/**
+	 * Returns the byte ranges of the categories found, as {start, end, count}
+	 * where count is the number of objects in the category's array. Names
+	 * that were found more than once are left out.
+	 *
+	 * @return
+	 */
+	Map<String, long[]> getRanges() {
+		return ranges;
+	}
+
+	/**
+	 * Returns the spans of all top level entries, as {start, end}, in the
+	 * order they are in the file.
+	 *
+	 * @return
+	 */
+	List<long[]> getEntries() {
+		return entries;
+	}
+
+	/**
+	 * Returns whether a whole top level object was scanned.
+	 *
+	 * @return
+	 */
+	boolean isComplete() {
+		return complete && depth == 0 && !inString;
+	}
+
+	private void endEntry() {
+		if (entryStart >= 0) {
+			entries.add(new long[]{entryStart, offset});
+			entryStart = -1;
+		}
+	}
+
+	private void addRange(String name, long start, long end, int count) {
+		if (repeated.contains(name)) {
+			return;
+		}
+		if (ranges.remove(name) != null) {
+			repeated.add(name);
+			return;
+		}
+		ranges.put(name, new long[]{start, end, count});
+	}
+
+	/**
+	 * Decodes the collected key bytes, without the closing quote.
+	 *
+	 * @return the key, null if it could not be decoded.
+	 */
+	private String decodeKey() {
+		String raw = new String(keyBytes.toByteArray(), StandardCharsets.UTF_8);
+		if (raw.indexOf('\\') < 0) {
+			return raw;
+		}
+		try {
+			return (String) new JSONParser().parse("\"" + raw + "\"");
+		}
+		catch (Exception ex) {
+			logger.log(Level.FINE, "Could not decode category name: {0}", raw);
+			return null;
+		}
+	}
+}
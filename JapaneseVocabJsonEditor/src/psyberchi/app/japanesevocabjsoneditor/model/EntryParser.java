@@ -0,0 +1,211 @@
+/*
+ *  EntryParser.java
+ *
+ *  GNU GPL License.
+ */
+package psyberchi.app.japanesevocabjsoneditor.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Parses single top level entries of a vocabulary file, found beforehand with
+ * a {@link CategoryScanner}, as if each were the only entry of the object. The
+ * same rules as {@link VocabContentHandler} apply. An EntryParser may be used
+ * from several threads at once.
+ *
+ * @author Kendall Conrad
+ */
+class EntryParser {
+	/**
+	 * Size of the buffer used to scan a file when it isn't mapped.
+	 */
+	private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+	/**
+	 * Shares the Strings of the items parsed, null if there is none.
+	 */
+	private final StringPool pool;
+
+	/**
+	 * The category and vocabulary read from one top level entry.
+	 */
+	static class Content {
+		String category = null;
+		final List<VocabItem> items = new ArrayList<>();
+	}
+
+	/**
+	 * Creates a parser that keeps the Strings of the items as parsed, so it
+	 * can be used from several threads.
+	 */
+	EntryParser() {
+		this(null);
+	}
+
+	/**
+	 * Creates a parser that shares the Strings of the items through a pool.
+	 * The parser can then only be used by one thread at a time.
+	 *
+	 * @param pool the pool, may be null.
+	 */
+	EntryParser(StringPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Feeds a whole file to a scanner.
+	 *
+	 * @param channel the file.
+	 * @param scanner
+	 * @throws IOException
+	 */
+	static void scan(FileChannel channel, CategoryScanner scanner) throws IOException {
+		long size = channel.size();
+		if (JsonVocabIO.isMappedReads()) {
+			long position = 0;
+			while (position < size) {
+				long length = Math.min(Integer.MAX_VALUE, size - position);
+				ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+				scanner.update(window, 0, window.limit());
+				position += length;
+			}
+			return;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+		long position = 0;
+		int n;
+		while ((n = channel.read(buffer, position)) > 0) {
+			scanner.update(buffer.array(), 0, n);
+			position += n;
+			buffer.clear();
+		}
+	}
+
+	/**
+	 * Called every so many vocabulary items read. Subclasses can override it
+	 * to report progress.
+	 *
+	 * @param count the number of items read since the last call.
+	 * @return true to keep reading, false to stop.
+	 */
+	boolean itemsRead(int count) {
+		return true;
+	}
+
+	/**
+	 * Parses the entry in the given range of a file.
+	 *
+	 * @param channel the file.
+	 * @param start the position of the quote opening the entry's key.
+	 * @param end the position after the entry's value.
+	 * @return what was read from the entry.
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	Content parse(FileChannel channel, long start, long end) throws IOException, ParseException {
+		Reader body;
+		if (JsonVocabIO.isMappedReads()) {
+			body = new MappedFileReader(channel, start, end);
+		}
+		else {
+			ByteBuffer bytes = ByteBuffer.allocate((int) (end - start));
+			while (bytes.hasRemaining()
+					&& channel.read(bytes, start + bytes.position()) > 0) {
+				// Keep reading until the entry is all in
+			}
+			body = new InputStreamReader(new ByteArrayInputStream(bytes.array(), 0,
+					bytes.position()), StandardCharsets.UTF_8);
+		}
+		Handler handler = new Handler();
+		handler.setStringPool(pool);
+		try (Reader reader = new BracedReader(body)) {
+			new JSONParser().parse(reader, handler);
+		}
+		return handler.content;
+	}
+
+	/**
+	 * Collects the content of one entry instead of adding it to a model.
+	 */
+	private class Handler extends VocabContentHandler {
+		private final Content content = new Content();
+		/**
+		 * Items counted towards the progress so far.
+		 */
+		private int reported = 0;
+
+		@Override
+		boolean addCategory(String cat) {
+			content.category = cat;
+			return true;
+		}
+
+		@Override
+		boolean addVocabItem(String cat, VocabItem item) {
+			content.items.add(item);
+			return true;
+		}
+
+		@Override
+		boolean reportProgress(int categories, int items) {
+			int count = items - reported;
+			reported = items;
+			return itemsRead(count);
+		}
+	}
+
+	/**
+	 * Wraps the text of one entry in braces so it reads as an object.
+	 */
+	private static class BracedReader extends Reader {
+		private final Reader body;
+		/**
+		 * 0 before the opening brace, 1 in the body, 2 before the closing
+		 * brace and 3 at the end.
+		 */
+		private int state = 0;
+
+		BracedReader(Reader body) {
+			this.body = body;
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (state == 0) {
+				cbuf[off] = '{';
+				state = 1;
+				return 1;
+			}
+			if (state == 1) {
+				int n = body.read(cbuf, off, len);
+				if (n != -1) {
+					return n;
+				}
+				state = 2;
+			}
+			if (state == 2) {
+				cbuf[off] = '}';
+				state = 3;
+				return 1;
+			}
+			return -1;
+		}
+
+		@Override
+		public void close() throws IOException {
+			body.close();
+		}
+	}
+}
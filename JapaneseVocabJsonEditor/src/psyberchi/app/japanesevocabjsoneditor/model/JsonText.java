@@ -0,0 +1,146 @@
+/*
+ *  JsonText.java
+ *
+ *  GNU GPL License.
+ */
+package psyberchi.app.japanesevocabjsoneditor.model;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes JSON text straight into an Appendable, escaping Strings the same way
+ * as {@link org.json.simple.JSONObject#escape(String)} without building the
+ * escaped copy first. Strings that need no escaping, which is nearly all of
+ * them, are appended whole.
+ *
+ * @author Kendall Conrad
+ */
+final class JsonText {
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	private JsonText() {
+	}
+
+	/**
+	 * Appends a String escaped for use inside a JSON string.
+	 *
+	 * @param out
+	 * @param s the String, appended as null if null.
+	 * @throws IOException
+	 */
+	static void appendEscaped(Appendable out, String s) throws IOException {
+		if (s == null) {
+			out.append("null");
+			return;
+		}
+		int start = 0;
+		for (int a = 0; a < s.length(); a++) {
+			char ch = s.charAt(a);
+			if (!needsEscape(ch)) {
+				continue;
+			}
+			appendRange(out, s, start, a);
+			start = a + 1;
+			switch (ch) {
+				case '"':
+					out.append("\\\"");
+					break;
+				case '\\':
+					out.append("\\\\");
+					break;
+				case '\b':
+					out.append("\\b");
+					break;
+				case '\f':
+					out.append("\\f");
+					break;
+				case '\n':
+					out.append("\\n");
+					break;
+				case '\r':
+					out.append("\\r");
+					break;
+				case '\t':
+					out.append("\\t");
+					break;
+				case '/':
+					out.append("\\/");
+					break;
+				default:
+					out.append("\\u")
+							.append(HEX[(ch >> 12) & 0xF])
+							.append(HEX[(ch >> 8) & 0xF])
+							.append(HEX[(ch >> 4) & 0xF])
+							.append(HEX[ch & 0xF]);
+					break;
+			}
+		}
+		appendRange(out, s, start, s.length());
+	}
+
+	/**
+	 * Appends the decimal form of a number.
+	 *
+	 * @param out
+	 * @param value
+	 * @throws IOException
+	 */
+	static void appendInt(Appendable out, int value) throws IOException {
+		if (out instanceof StringBuilder) {
+			((StringBuilder) out).append(value);
+			return;
+		}
+		if (value < 0) {
+			if (value == Integer.MIN_VALUE) {
+				out.append(Integer.toString(value));
+				return;
+			}
+			out.append('-');
+			value = -value;
+		}
+		int divisor = 1;
+		while (value / divisor >= 10) {
+			divisor *= 10;
+		}
+		for (; divisor > 0; divisor /= 10) {
+			out.append((char) ('0' + value / divisor % 10));
+		}
+	}
+
+	/**
+	 * Returns whether a char has to be escaped, by the same rules as
+	 * json-simple.
+	 *
+	 * @param ch
+	 * @return
+	 */
+	private static boolean needsEscape(char ch) {
+		return ch == '"' || ch == '\\' || ch == '/' || ch <= '\u001F'
+				|| (ch >= '\u007F' && ch <= '\u009F')
+				|| (ch >= '\u2000' && ch <= '\u20FF');
+	}
+
+	/**
+	 * Appends part of a String without copying it out first.
+	 *
+	 * @param out
+	 * @param s
+	 * @param start
+	 * @param end
+	 * @throws IOException
+	 */
+	private static void appendRange(Appendable out, String s, int start, int end)
+			throws IOException {
+		if (start == end) {
+			return;
+		}
+		if (out instanceof Writer) {
+			// Writer.append would take a substring
+			((Writer) out).write(s, start, end - start);
+		}
+		else {
+			out.append(s, start, end);
+		}
+	}
+}
@@ -5,16 +5,33 @@
  */
 package psyberchi.app.japanesevocabjsoneditor.model;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
-import org.json.simple.JSONValue;
+import org.json.simple.JSONStreamAware;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
@@ -23,6 +40,40 @@ import org.json.simple.parser.ParseException;
  */
 public class JsonVocabIO {
 	private static final Logger logger = Logger.getLogger(JsonVocabIO.class.getCanonicalName());
+	/**
+	 * Whether files are read through memory mapping. Off on Windows, where a
+	 * mapped file can't be replaced until the mapping is garbage collected,
+	 * which would make saving over it fail.
+	 */
+	private static boolean mappedReads = !System.getProperty("os.name", "").startsWith("Windows");
+	/**
+	 * Files smaller than this are not worth reading in parallel.
+	 */
+	private static final long PARALLEL_MIN_SIZE = 1024 * 1024;
+	/**
+	 * Whether a binary cache is kept of the JSON files read.
+	 */
+	private static boolean cacheEnabled = true;
+	/**
+	 * The directory the binary caches are kept in.
+	 */
+	private static File cacheDirectory = BinaryVocabIO.getDefaultCacheDirectory();
+
+	/**
+	 * Receives progress updates while a vocabulary file is being read.
+	 */
+	public interface ProgressListener {
+		/**
+		 * Called periodically while reading.
+		 *
+		 * @param bytesRead the number of bytes of the file read so far.
+		 * @param totalBytes the size of the file.
+		 * @param categories the number of categories read so far.
+		 * @param items the number of vocabulary items read so far.
+		 * @return true to keep reading, false to cancel.
+		 */
+		boolean progress(long bytesRead, long totalBytes, int categories, int items);
+	}
 
 	/**
 	 * Checks the validity of a VocabItem object.
@@ -42,6 +93,9 @@ public class JsonVocabIO {
 	}
 
 	/**
+	 * Reads a vocabulary file by parsing it into a tree of JSONObject and
+	 * JSONArray maps first. A category key that appears more than once only
+	 * keeps its last array, unlike the other readers, which merge the arrays.
 	 *
 	 * @param jsonFile
 	 * @return
@@ -59,9 +113,15 @@ public class JsonVocabIO {
 			return null;
 		}
 		JSONParser parser = new JSONParser();
-		Object wholeFile = parser.parse(new FileReader(jsonFile));
+		Object wholeFile;
+		// Files are written as UTF-8 so read them back the same way
+		try (Reader reader = isMappedReads() ? new MappedFileReader(jsonFile, null)
+				: new InputStreamReader(new FileInputStream(jsonFile), StandardCharsets.UTF_8)) {
+			wholeFile = parser.parse(reader);
+		}
 		JSONObject jsonObject = (JSONObject) wholeFile;
 		VocabModel model = new VocabModel();
+		StringPool pool = new StringPool();
 		logger.log(Level.INFO, "JSON file ''{0}'' successfuly read in.",
 				jsonFile.getCanonicalPath());
 
@@ -90,9 +150,11 @@ public class JsonVocabIO {
 						JSONObject vocabObject = (JSONObject) vocabItem;
 						// Make sure it's valid before trying to add it
 						if (!isValidVocabItem(vocabObject)) {
-							logger.log(Level.WARNING,
-									"Invalid VocabItem found. Skipping it: {0}",
-									vocabObject.toJSONString());
+							if (logger.isLoggable(Level.WARNING)) {
+								logger.log(Level.WARNING,
+										"Invalid VocabItem found. Skipping it: {0}",
+										vocabObject.toJSONString());
+							}
 							continue;
 						}
 
@@ -114,6 +176,7 @@ public class JsonVocabIO {
 								vocabObject.get("kn").toString(),
 								vocabObject.get("kj").toString(),
 								lesson);
+						item.intern(pool);
 						if (model.addVocabItem(cat, item)) {
 							vocabCount++;
 							if (logger.isLoggable(Level.FINE)) {
@@ -133,29 +196,306 @@ public class JsonVocabIO {
 		}
 		logger.log(Level.INFO, "Read in {0} categories and {1} vocabulary items.",
 				new Object[]{catCount, vocabCount});
+		pool.logStats(jsonFile);
 		return model;
 	}
 
 	/**
-	 * Writes out the vocabulary model into a JSON format.
+	 * Returns whether files are read by decoding memory mapped windows of the
+	 * file directly, rather than through an InputStreamReader.
+	 *
+	 * @return
+	 */
+	public static boolean isMappedReads() {
+		return mappedReads;
+	}
+
+	/**
+	 * @param mapped whether files are read through memory mapping.
+	 */
+	public static void setMappedReads(boolean mapped) {
+		mappedReads = mapped;
+	}
+
+	/**
+	 * Reads a vocabulary JSON file by streaming the parser events straight
+	 * into a {@link VocabModel}. Unlike {@link #readJsonFile(File)} the whole
+	 * file is never held as a JSONObject tree, so the peak memory is close to
+	 * that of the resulting model. The file is read as UTF-8.
+	 *
+	 * @param jsonFile the file to read.
+	 * @return the model read in, or null if the file cannot be read.
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public static VocabModel readJsonFileStreaming(File jsonFile)
+			throws FileNotFoundException, IOException, ParseException {
+		return readJsonFileStreaming(jsonFile, null);
+	}
+
+	/**
+	 * Reads a vocabulary JSON file like {@link #readJsonFileStreaming(File)},
+	 * reporting progress to the given listener which may also cancel the read.
+	 *
+	 * @param jsonFile the file to read.
+	 * @param listener the listener to report progress to, may be null.
+	 * @return the model read in, or null if the file cannot be read or the
+	 * read was cancelled.
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public static VocabModel readJsonFileStreaming(File jsonFile, final ProgressListener listener)
+			throws FileNotFoundException, IOException, ParseException {
+		// Make sure we have something real to work with
+		if (!jsonFile.exists() || !jsonFile.canRead()) {
+			logger.log(Level.WARNING,
+					"The file ''{0}'' either does not exist or cannot be read.",
+					jsonFile);
+			return null;
+		}
+		final long totalBytes = jsonFile.length();
+		// Where the categories are in the file is found along the way, so the
+		// unmodified ones can be copied as is when saving
+		VocabSource source = VocabSource.of(jsonFile);
+		CategoryScanner scanner = new CategoryScanner();
+		final MappedFileReader mapped = isMappedReads() ? new MappedFileReader(jsonFile, scanner) : null;
+		final CountingInputStream in = (mapped != null) ? null
+				: new CountingInputStream(new FileInputStream(jsonFile), scanner);
+		VocabContentHandler handler = new VocabContentHandler() {
+			@Override
+			boolean reportProgress(int categories, int items) {
+				long bytesRead = (mapped != null) ? mapped.getPosition() : in.getCount();
+				return listener == null
+						|| listener.progress(bytesRead, totalBytes, categories, items);
+			}
+		};
+		try (Reader reader = (mapped != null) ? mapped
+				: new InputStreamReader(in, StandardCharsets.UTF_8)) {
+			JSONParser parser = new JSONParser();
+			parser.parse(reader, handler);
+		}
+		if (handler.isCancelled()) {
+			logger.log(Level.INFO, "Reading of ''{0}'' was cancelled.", jsonFile);
+			return null;
+		}
+		if (source.isSameVersion(VocabSource.of(jsonFile))) {
+			handler.getModel().setSource(source, scanner.getRanges());
+		}
+		logger.log(Level.INFO, "JSON file ''{0}'' successfuly read in.",
+				jsonFile.getCanonicalPath());
+		logger.log(Level.INFO, "Read in {0} categories and {1} vocabulary items.",
+				new Object[]{handler.getCategoryCount(), handler.getVocabCount()});
+		handler.getStringPool().logStats(jsonFile);
+		return handler.getModel();
+	}
+
+	/**
+	 * Returns whether a binary cache of each JSON file read is kept in the
+	 * cache directory and read in its place while the JSON file is unchanged.
+	 *
+	 * @return
+	 */
+	public static boolean isCacheEnabled() {
+		return cacheEnabled;
+	}
+
+	/**
+	 * @param enabled whether to keep binary caches of the files read.
+	 */
+	public static void setCacheEnabled(boolean enabled) {
+		cacheEnabled = enabled;
+	}
+
+	/**
+	 * Returns the directory binary caches are kept in, by default the user's
+	 * cache directory rather than next to the vocabulary files.
+	 *
+	 * @return
+	 */
+	public static File getCacheDirectory() {
+		return cacheDirectory;
+	}
+
+	/**
+	 * @param dir the directory to keep binary caches in.
+	 */
+	public static void setCacheDirectory(File dir) {
+		cacheDirectory = dir;
+	}
+
+	/**
+	 * Reads a vocabulary file, from its binary cache if the cache was made
+	 * from the JSON file as it is now. Otherwise the JSON file is read with
+	 * {@link #readJsonFileParallel(File, ProgressListener)} and the cache is
+	 * written for next time.
+	 *
+	 * @param jsonFile the file to read.
+	 * @param listener the listener to report progress to, may be null.
+	 * @return the model read in, or null if the file cannot be read or the
+	 * read was cancelled.
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public static VocabModel readVocabFile(File jsonFile, ProgressListener listener)
+			throws FileNotFoundException, IOException, ParseException {
+		if (!isCacheEnabled()) {
+			return readJsonFileParallel(jsonFile, listener);
+		}
+		VocabModel model = BinaryVocabIO.read(jsonFile);
+		if (model != null) {
+			if (listener != null) {
+				listener.progress(jsonFile.length(), jsonFile.length(),
+						model.getCategoryCount(), model.getVocabCount());
+			}
+			return model;
+		}
+		model = readJsonFileParallel(jsonFile, listener);
+		if (model != null) {
+			BinaryVocabIO.write(jsonFile, model);
+		}
+		return model;
+	}
+
+	/**
+	 * Reads a vocabulary JSON file like
+	 * {@link #readJsonFileStreaming(File, ProgressListener)}, but parses the
+	 * categories at the same time on several threads. The resulting model is
+	 * the same. Small files, and files the categories can't be found in ahead
+	 * of parsing, are read with the streaming reader.
+	 *
+	 * @param jsonFile the file to read.
+	 * @param listener the listener to report progress to, may be null.
+	 * @return the model read in, or null if the file cannot be read or the
+	 * read was cancelled.
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public static VocabModel readJsonFileParallel(File jsonFile, ProgressListener listener)
+			throws FileNotFoundException, IOException, ParseException {
+		if (!jsonFile.exists() || !jsonFile.canRead()) {
+			logger.log(Level.WARNING,
+					"The file ''{0}'' either does not exist or cannot be read.",
+					jsonFile);
+			return null;
+		}
+		if (jsonFile.length() < PARALLEL_MIN_SIZE
+				|| Runtime.getRuntime().availableProcessors() < 2) {
+			return readJsonFileStreaming(jsonFile, listener);
+		}
+		ParallelVocabLoader loader = new ParallelVocabLoader(jsonFile, listener);
+		VocabModel model = loader.read();
+		if (model == null) {
+			if (loader.isCancelled()) {
+				logger.log(Level.INFO, "Reading of ''{0}'' was cancelled.", jsonFile);
+				return null;
+			}
+			return readJsonFileStreaming(jsonFile, listener);
+		}
+		logger.log(Level.INFO, "JSON file ''{0}'' successfuly read in.",
+				jsonFile.getCanonicalPath());
+		return model;
+	}
+
+	/**
+	 * Reads a vocabulary JSON file without reading the vocabulary of its
+	 * categories. Only the structure of the file is scanned, to find the
+	 * name, place and item count of each category, and a category's
+	 * vocabulary is read in the first time it is needed. The file is kept
+	 * open until then, or until {@link VocabModel#close()}. Entries that
+	 * can't be read on their own, such as repeated category names, are read
+	 * right away. Files whose structure can't be scanned are read with
+	 * {@link #readJsonFileStreaming(File, ProgressListener)}.
+	 *
+	 * @param jsonFile the file to read.
+	 * @param listener the listener to report progress to, may be null.
+	 * @return the model read in, or null if the file cannot be read or the
+	 * read was cancelled.
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public static VocabModel readJsonFileLazy(File jsonFile, ProgressListener listener)
+			throws FileNotFoundException, IOException, ParseException {
+		if (!jsonFile.exists() || !jsonFile.canRead()) {
+			logger.log(Level.WARNING,
+					"The file ''{0}'' either does not exist or cannot be read.",
+					jsonFile);
+			return null;
+		}
+		VocabSource source = VocabSource.of(jsonFile);
+		CategoryLoader loader = new CategoryLoader(source);
+		VocabModel model = new VocabModel();
+		try {
+			CategoryScanner scanner = new CategoryScanner();
+			EntryParser.scan(loader.getChannel(), scanner);
+			if (!scanner.isComplete() || !source.isSameVersion(VocabSource.of(jsonFile))) {
+				loader.close();
+				return readJsonFileStreaming(jsonFile, listener);
+			}
+			Map<Long, String> lazyNames = new HashMap<>();
+			for (Map.Entry<String, long[]> range : scanner.getRanges().entrySet()) {
+				lazyNames.put(range.getValue()[0], range.getKey());
+			}
+			EntryParser parser = new EntryParser(loader.getStringPool());
+			for (long[] entry : scanner.getEntries()) {
+				String name = lazyNames.get(entry[0]);
+				if (name != null) {
+					model.addLazyCategory(name, loader, scanner.getRanges().get(name));
+					continue;
+				}
+				EntryParser.Content content = parser.parse(loader.getChannel(), entry[0], entry[1]);
+				if (content.category == null) {
+					continue;
+				}
+				if (!model.addCategory(content.category)) {
+					logger.log(Level.WARNING, "Category {0} appears more than once, merging its vocabulary",
+							content.category);
+				}
+				for (VocabItem item : content.items) {
+					model.addVocabItem(content.category, item);
+				}
+			}
+			model.setSource(source, scanner.getRanges());
+		}
+		catch (IOException | ParseException | RuntimeException ex) {
+			loader.close();
+			throw ex;
+		}
+		if (model.isLoaded()) {
+			// Nothing was left to read later
+			loader.close();
+		}
+		if (listener != null) {
+			listener.progress(source.getLength(), source.getLength(),
+					model.getCategoryCount(), model.getVocabCount());
+		}
+		logger.log(Level.INFO, "Scanned {0} categories with {1} vocabulary items in ''{2}''.",
+				new Object[]{model.getCategoryCount(), model.getVocabCount(), jsonFile});
+		return model;
+	}
+
+	/**
+	 * Writes out the vocabulary model into a JSON format. The model is
+	 * streamed category by category through a buffered UTF-8 writer. Either a
+	 * {@link VocabModel} or a {@link VocabSnapshot} of one can be written.
 	 *
 	 * @param file
 	 * @param model
 	 * @return
 	 */
-	public static boolean writeJsonFile(File file, VocabModel model) {
+	public static boolean writeJsonFile(File file, JSONStreamAware model) {
 		if (file == null || model == null) {
 			return false;
 		}
-		try {
-			String json = JSONValue.toJSONString(model);
-			FileWriter writer = new FileWriter(file);
-			writer.write(json);
-			writer.close();
+		try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(file), StandardCharsets.UTF_8))) {
+			model.writeJSONString(writer);
+			writer.flush();
 			logger.log(Level.INFO, "Successfully wrote JSON file to ''{0}''", file.getCanonicalPath());
-			// TODO use writer directly to avoid String creation; maybe
-//			StringWriter out = new StringWriter();
-//			model.w
 		}
 		catch (Exception ex) {
 			logger.log(Level.SEVERE, "Problem creating JSON: {0}", ex.getLocalizedMessage());
@@ -163,4 +503,266 @@ public class JsonVocabIO {
 		}
 		return true;
 	}
+
+	/**
+	 * Writes out the vocabulary model to a sibling temporary file, forces it
+	 * to disk and then moves it over the given file in one atomic step. A
+	 * failure part way through leaves the original file untouched.
+	 *
+	 * @param file the file to save to.
+	 * @param model the model, or snapshot of one, to save.
+	 * @param keepBackup whether the previous version of the file should be
+	 * kept as a .bak file next to it.
+	 * @return true if the file was saved, false otherwise.
+	 */
+	public static boolean writeJsonFileAtomic(File file, JSONStreamAware model, boolean keepBackup) {
+		if (file == null || model == null) {
+			return false;
+		}
+		File target = file.getAbsoluteFile();
+		File temp = null;
+		try {
+			temp = File.createTempFile("." + target.getName() + ".", ".tmp",
+					target.getParentFile());
+			try (FileOutputStream fos = new FileOutputStream(temp);
+					Writer writer = new BufferedWriter(new OutputStreamWriter(
+									fos, StandardCharsets.UTF_8))) {
+				model.writeJSONString(writer);
+				writer.flush();
+				// Make sure the content is on disk before it replaces anything
+				fos.getChannel().force(true);
+			}
+			replaceFile(temp, target, keepBackup);
+			logger.log(Level.INFO, "Successfully wrote JSON file to ''{0}''", target.getCanonicalPath());
+		}
+		catch (Exception ex) {
+			logger.log(Level.SEVERE, "Problem creating JSON: {0}", ex.getLocalizedMessage());
+			deleteTempFile(temp);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Writes out a snapshot of the model like
+	 * {@link #writeJsonFileAtomic(File, JSONStreamAware, boolean)}, copying
+	 * the bytes of the categories that were not modified straight from the
+	 * snapshot's source file instead of serializing them again. Only the
+	 * modified categories go through the JSON encoder. Where each category
+	 * ends up in the new file is recorded in the snapshot, to be applied with
+	 * {@link VocabModel#markSaved(VocabSnapshot)}.
+	 *
+	 * @param file the file to save to.
+	 * @param snapshot the snapshot to save.
+	 * @param keepBackup whether the previous version of the file should be
+	 * kept as a .bak file next to it.
+	 * @return true if the file was saved, false otherwise.
+	 */
+	public static boolean writeJsonFileIncremental(File file, VocabSnapshot snapshot, boolean keepBackup) {
+		if (file == null || snapshot == null) {
+			return false;
+		}
+		File target = file.getAbsoluteFile();
+		File temp = null;
+		VocabSource source = snapshot.getSource();
+		try {
+			temp = File.createTempFile("." + target.getName() + ".", ".tmp",
+					target.getParentFile());
+			try (FileChannel in = (source == null) ? null
+					: FileChannel.open(source.getFile().toPath(), StandardOpenOption.READ);
+					FileOutputStream fos = new FileOutputStream(temp);
+					Writer writer = new BufferedWriter(new OutputStreamWriter(
+									fos, StandardCharsets.UTF_8))) {
+				// The ranges are only good for the version of the file they came from
+				if (source != null && !source.isCurrent()) {
+					throw new IOException("File changed on disk: " + source.getFile());
+				}
+				FileChannel out = fos.getChannel();
+				List<VocabSnapshot.Entry> entries = snapshot.getEntries();
+				writer.write("{\n");
+				for (int a = 0; a < entries.size(); a++) {
+					VocabSnapshot.Entry entry = entries.get(a);
+					writer.write('\t');
+					writer.flush();
+					long start = out.position();
+					if (entry.items != null) {
+						entry.read();
+						VocabModel.writeCategoryEntry(writer, entry.name, entry.items);
+						entry.finish();
+						writer.flush();
+					}
+					else {
+						transferFully(in, entry.sourceStart, entry.sourceEnd - entry.sourceStart, out);
+					}
+					entry.writtenStart = start;
+					entry.writtenEnd = out.position();
+					writer.write(a + 1 < entries.size() ? ",\n" : "\n");
+				}
+				writer.write("}\n");
+				writer.flush();
+				out.force(true);
+			}
+			replaceFile(temp, target, keepBackup);
+			snapshot.setWrittenSource(VocabSource.of(target));
+			logger.log(Level.INFO, "Successfully wrote JSON file to ''{0}'', {1} of {2} categories copied unchanged",
+					new Object[]{target.getCanonicalPath(), snapshot.getReusedCategoryCount(),
+						snapshot.getCategoryCount()});
+		}
+		catch (Exception ex) {
+			logger.log(Level.SEVERE, "Problem creating JSON: {0}", ex.getLocalizedMessage());
+			deleteTempFile(temp);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Copies a range of one file channel to the current position of another.
+	 *
+	 * @param in
+	 * @param position
+	 * @param count
+	 * @param out
+	 * @throws IOException
+	 */
+	private static void transferFully(FileChannel in, long position, long count, FileChannel out)
+			throws IOException {
+		long done = 0;
+		while (done < count) {
+			long n = in.transferTo(position + done, count - done, out);
+			if (n <= 0) {
+				throw new IOException("Source file ended early");
+			}
+			done += n;
+		}
+	}
+
+	/**
+	 * Moves a fully written temporary file over the target, atomically when
+	 * the file system allows it, optionally keeping a backup of the target.
+	 *
+	 * @param temp
+	 * @param target
+	 * @param keepBackup
+	 * @throws IOException
+	 */
+	static void replaceFile(File temp, File target, boolean keepBackup) throws IOException {
+		if (keepBackup && target.exists()) {
+			backupFile(target.toPath());
+		}
+		try {
+			Files.move(temp.toPath(), target.toPath(),
+					StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (AtomicMoveNotSupportedException ex) {
+			logger.log(Level.WARNING, "Atomic move not supported, replacing ''{0}''",
+					target);
+			Files.move(temp.toPath(), target.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+		}
+		syncDirectory(target.getParentFile());
+	}
+
+	/**
+	 * Removes a temporary file left by a failed save.
+	 *
+	 * @param temp
+	 */
+	static void deleteTempFile(File temp) {
+		if (temp != null && temp.exists() && !temp.delete()) {
+			logger.log(Level.WARNING, "Could not remove temporary file ''{0}''", temp);
+		}
+	}
+
+	/**
+	 * Rotates the current version of a file into its .bak file. A hard link is
+	 * used when possible so the original file does not have to be copied.
+	 *
+	 * @param path the file to back up.
+	 * @throws IOException
+	 */
+	private static void backupFile(Path path) throws IOException {
+		Path backup = path.resolveSibling(path.getFileName() + ".bak");
+		Files.deleteIfExists(backup);
+		try {
+			Files.createLink(backup, path);
+		}
+		catch (IOException | UnsupportedOperationException ex) {
+			Files.copy(path, backup, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.COPY_ATTRIBUTES);
+		}
+	}
+
+	/**
+	 * Forces a directory entry change, such as a rename, to disk. Not all
+	 * platforms allow opening a directory so failures are only logged.
+	 *
+	 * @param dir the directory to sync.
+	 */
+	private static void syncDirectory(File dir) {
+		try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+			channel.force(true);
+		}
+		catch (IOException ex) {
+			logger.log(Level.FINE, "Could not sync directory ''{0}''", dir);
+		}
+	}
+
+	/**
+	 * An InputStream that counts the bytes read through it.
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		private long count = 0;
+		/**
+		 * Sees every byte read, may be null.
+		 */
+		private final CategoryScanner scanner;
+
+		CountingInputStream(InputStream in, CategoryScanner scanner) {
+			super(in);
+			this.scanner = scanner;
+		}
+
+		/**
+		 * Returns the number of bytes read so far.
+		 *
+		 * @return
+		 */
+		long getCount() {
+			return count;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1) {
+				count++;
+				if (scanner != null) {
+					scanner.update(b);
+				}
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) {
+				count += n;
+				if (scanner != null) {
+					scanner.update(b, off, n);
+				}
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			// Read rather than skip so the scanner sees the bytes
+			byte[] buf = new byte[(int) Math.min(n, 8192)];
+			int read = read(buf, 0, buf.length);
+			return read < 0 ? 0 : read;
+		}
+	}
 }
@@ -0,0 +1,178 @@
+/*
+ *  MappedFileReader.java
+ *
+ *  GNU GPL License.
+ */
+package psyberchi.app.japanesevocabjsoneditor.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A Reader that decodes a UTF-8 file straight out of memory mapped windows of
+ * it into the caller's buffer. The file is neither copied into a byte buffer
+ * nor decoded into an intermediate char buffer first, and large files are
+ * mapped a window at a time. Malformed input is replaced, as an
+ * InputStreamReader would do. A reader can also cover just a range of a
+ * channel shared with other readers.
+ *
+ * The mapped windows are only released when garbage collected, which on
+ * some platforms keeps the file from being replaced in the meantime.
+ *
+ * @author Kendall Conrad
+ */
+class MappedFileReader extends Reader {
+	/**
+	 * The most of the file mapped at once.
+	 */
+	private static final long WINDOW_SIZE = 64L * 1024 * 1024;
+	private final FileChannel channel;
+	/**
+	 * Whether closing the reader closes the channel.
+	 */
+	private final boolean ownsChannel;
+	/**
+	 * The range of the file read.
+	 */
+	private final long start;
+	private final long end;
+	private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	/**
+	 * Sees every byte decoded, may be null.
+	 */
+	private final CategoryScanner scanner;
+	/**
+	 * The current window and where it starts in the file.
+	 */
+	private MappedByteBuffer window = null;
+	private long windowStart = 0;
+	/**
+	 * The low surrogate of a pair when only the high one fit, -1 if none.
+	 */
+	private int pendingChar = -1;
+	private boolean finished = false;
+
+	/**
+	 * Opens a file for reading.
+	 *
+	 * @param file the UTF-8 file.
+	 * @param scanner receives the bytes as they are decoded, may be null.
+	 * @throws IOException
+	 */
+	MappedFileReader(File file, CategoryScanner scanner) throws IOException {
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		this.ownsChannel = true;
+		this.start = 0;
+		this.end = channel.size();
+		this.scanner = scanner;
+	}
+
+	/**
+	 * Reads a range of an open channel, which is left open on close.
+	 *
+	 * @param channel the channel of a UTF-8 file.
+	 * @param start the position of the first byte to read.
+	 * @param end the position after the last byte to read.
+	 */
+	MappedFileReader(FileChannel channel, long start, long end) {
+		this.channel = channel;
+		this.ownsChannel = false;
+		this.start = start;
+		this.end = end;
+		this.scanner = null;
+	}
+
+	/**
+	 * Returns the number of bytes of the file decoded so far.
+	 *
+	 * @return
+	 */
+	long getPosition() {
+		return window == null ? start : windowStart + window.position();
+	}
+
+	@Override
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (pendingChar != -1) {
+			cbuf[off] = (char) pendingChar;
+			pendingChar = -1;
+			return 1;
+		}
+		if (finished) {
+			return -1;
+		}
+		if (len == 1) {
+			// A surrogate pair needs room for two chars
+			char[] pair = new char[2];
+			int n = read(pair, 0, 2);
+			if (n == 2) {
+				pendingChar = pair[1];
+			}
+			if (n > 0) {
+				cbuf[off] = pair[0];
+				return 1;
+			}
+			return n;
+		}
+		CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+		while (out.position() == off) {
+			if (window == null || (!window.hasRemaining() && getPosition() < end)) {
+				mapFrom(getPosition());
+			}
+			boolean endOfInput = windowStart + window.limit() >= end;
+			int before = window.position();
+			CoderResult result = decoder.decode(window, out, endOfInput);
+			if (scanner != null) {
+				scanner.update(window, before, window.position());
+			}
+			if (result.isOverflow()) {
+				break;
+			}
+			if (endOfInput) {
+				decoder.flush(out);
+				finished = true;
+				break;
+			}
+			if (out.position() == off) {
+				// A character is split across windows, map from its start
+				mapFrom(getPosition());
+			}
+		}
+		int count = out.position() - off;
+		return (count == 0 && finished) ? -1 : count;
+	}
+
+	@Override
+	public void close() throws IOException {
+		window = null;
+		if (ownsChannel) {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Maps the window of the file starting at the given position.
+	 *
+	 * @param position
+	 * @throws IOException
+	 */
+	private void mapFrom(long position) throws IOException {
+		window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+				Math.min(WINDOW_SIZE, end - position));
+		windowStart = position;
+	}
+}
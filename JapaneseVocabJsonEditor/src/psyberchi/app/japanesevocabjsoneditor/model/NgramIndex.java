@@ -0,0 +1,475 @@
+/*
+ *  NgramIndex.java
+ *
+ *  GNU GPL License.
+ */
+package psyberchi.app.japanesevocabjsoneditor.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * An inverted index of the characters and character pairs in the values of
+ * vocabulary, for finding every item with some text anywhere in its English,
+ * romaji, kana or kanji. Values are folded the same way as by
+ * {@link VocabFilter}, so case and the kind of kana don't matter.
+ *
+ * Each item gets an id, and each pair of characters lists the ids of the
+ * items that have it in a sorted int array. A query looks up the lists of
+ * its pairs, keeps the ids found in all of them, and checks just those
+ * items. Single characters are only indexed outside of ASCII, for searches
+ * such as one kanji; a single ASCII letter is in too many items for a list
+ * of them to help, so those are checked item by item.
+ *
+ * Ids are handed out in increasing order and not reused, so adding an item
+ * only appends to lists. An item that changes is removed and added again
+ * with a new id. Once too many ids are unused the index renumbers the
+ * items. The index keeps the id of each item in its own table, so items not
+ * indexed don't carry one.
+ *
+ * @author Kendall Conrad
+ */
+final class NgramIndex {
+	/**
+	 * The items by id, null where an item was removed.
+	 */
+	private VocabItem[] items = new VocabItem[1024];
+	/**
+	 * The id the next item gets.
+	 */
+	private int nextId = 0;
+	/**
+	 * The number of items in the index.
+	 */
+	private int size = 0;
+	/**
+	 * The ids of the items, in an open addressing table keyed by the items'
+	 * identity. Kept at most half full.
+	 */
+	private VocabItem[] idKeys = new VocabItem[2048];
+	private int[] idValues = new int[2048];
+	/**
+	 * The ids of the items with each character outside of ASCII.
+	 */
+	private final HashMap<Character, Postings> unigrams = new HashMap<>();
+	/**
+	 * The ids of the items with each pair of characters, keyed by the first
+	 * character in the high 16 bits and the second in the low 16 bits.
+	 */
+	private final HashMap<Integer, Postings> bigrams = new HashMap<>();
+
+	/**
+	 * Returns the number of items in the index.
+	 *
+	 * @return
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Adds an item to the index, giving it an id.
+	 *
+	 * @param item an item not in the index.
+	 */
+	void add(VocabItem item) {
+		if (getId(item) >= 0) {
+			return;
+		}
+		if (nextId == items.length) {
+			if (nextId - size > size) {
+				renumber();
+			}
+			if (nextId == items.length) {
+				items = Arrays.copyOf(items, items.length * 2);
+			}
+		}
+		int id = nextId++;
+		items[id] = item;
+		putId(item, id);
+		size++;
+		int[][] grams = grams(item);
+		for (int a = 0; a < grams[0].length; a++) {
+			Character key = (char) grams[0][a];
+			Postings postings = unigrams.get(key);
+			if (postings == null) {
+				postings = new Postings();
+				unigrams.put(key, postings);
+			}
+			postings.append(id);
+		}
+		for (int a = 0; a < grams[1].length; a++) {
+			Integer key = grams[1][a];
+			Postings postings = bigrams.get(key);
+			if (postings == null) {
+				postings = new Postings();
+				bigrams.put(key, postings);
+			}
+			postings.append(id);
+		}
+	}
+
+	/**
+	 * Removes an item from the index. Its values must be the same as when it
+	 * was added.
+	 *
+	 * @param item
+	 */
+	void remove(VocabItem item) {
+		int id = getId(item);
+		if (id < 0 || id >= nextId || items[id] != item) {
+			return;
+		}
+		int[][] grams = grams(item);
+		for (int a = 0; a < grams[0].length; a++) {
+			Character key = (char) grams[0][a];
+			Postings postings = unigrams.get(key);
+			if (postings != null && postings.remove(id) && postings.size == 0) {
+				unigrams.remove(key);
+			}
+		}
+		for (int a = 0; a < grams[1].length; a++) {
+			Integer key = grams[1][a];
+			Postings postings = bigrams.get(key);
+			if (postings != null && postings.remove(id) && postings.size == 0) {
+				bigrams.remove(key);
+			}
+		}
+		items[id] = null;
+		removeId(item);
+		size--;
+	}
+
+	/**
+	 * Finds the items with the text in any of their values, ignoring case and
+	 * whether kana is hiragana or katakana.
+	 *
+	 * @param text the text to look for.
+	 * @return the items in the order they were added, empty if the text is
+	 * empty.
+	 */
+	List<VocabItem> find(String text) {
+		String q = VocabFilter.fold(text);
+		List<VocabItem> found = new ArrayList<>();
+		if (q.isEmpty()) {
+			return found;
+		}
+		if (q.length() == 1) {
+			char c = q.charAt(0);
+			if (c < 0x80) {
+				// Not indexed, check every item
+				for (int id = 0; id < nextId; id++) {
+					if (items[id] != null && matches(items[id], q)) {
+						found.add(items[id]);
+					}
+				}
+				return found;
+			}
+			Postings postings = unigrams.get(c);
+			if (postings != null) {
+				for (int a = 0; a < postings.size; a++) {
+					found.add(items[postings.ids[a]]);
+				}
+			}
+			return found;
+		}
+		// Start from the shortest list of the pairs, so the fewest ids are
+		// carried through
+		Postings[] lists = new Postings[q.length() - 1];
+		for (int a = 0; a < lists.length; a++) {
+			lists[a] = bigrams.get((q.charAt(a) << 16) | q.charAt(a + 1));
+			if (lists[a] == null) {
+				return found;
+			}
+		}
+		Arrays.sort(lists, new Comparator<Postings>() {
+			@Override
+			public int compare(Postings p1, Postings p2) {
+				return Integer.compare(p1.size, p2.size);
+			}
+		});
+		int[] ids = Arrays.copyOf(lists[0].ids, lists[0].size);
+		int count = ids.length;
+		for (int a = 1; a < lists.length && count > 0; a++) {
+			if (lists[a] != lists[a - 1]) {
+				count = lists[a].retain(ids, count);
+			}
+		}
+		for (int a = 0; a < count; a++) {
+			VocabItem item = items[ids[a]];
+			// Having every pair doesn't mean having them in a row
+			if (q.length() == 2 || matches(item, q)) {
+				found.add(item);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Returns the id of an item.
+	 *
+	 * @param item
+	 * @return the id, -1 if the item is not in the index.
+	 */
+	private int getId(VocabItem item) {
+		int slot = idSlot(item);
+		return idKeys[slot] == item ? idValues[slot] : -1;
+	}
+
+	/**
+	 * Sets the id of an item, growing the table if it would be more than
+	 * half full.
+	 *
+	 * @param item
+	 * @param id
+	 */
+	private void putId(VocabItem item, int id) {
+		int slot = idSlot(item);
+		if (idKeys[slot] != item) {
+			if ((size + 1) * 2 > idKeys.length) {
+				VocabItem[] oldKeys = idKeys;
+				int[] oldValues = idValues;
+				idKeys = new VocabItem[oldKeys.length * 2];
+				idValues = new int[oldKeys.length * 2];
+				for (int a = 0; a < oldKeys.length; a++) {
+					if (oldKeys[a] != null) {
+						int s = idSlot(oldKeys[a]);
+						idKeys[s] = oldKeys[a];
+						idValues[s] = oldValues[a];
+					}
+				}
+				slot = idSlot(item);
+			}
+			idKeys[slot] = item;
+		}
+		idValues[slot] = id;
+	}
+
+	/**
+	 * Drops the id of an item, moving back the entries after it that were
+	 * placed past their slot so lookups still find them.
+	 *
+	 * @param item
+	 */
+	private void removeId(VocabItem item) {
+		int slot = idSlot(item);
+		if (idKeys[slot] != item) {
+			return;
+		}
+		int mask = idKeys.length - 1;
+		int next = slot;
+		while (true) {
+			next = (next + 1) & mask;
+			VocabItem moved = idKeys[next];
+			if (moved == null) {
+				break;
+			}
+			int home = idHome(moved);
+			// Move it back unless its home slot is after the gap
+			if (((next - home) & mask) >= ((next - slot) & mask)) {
+				idKeys[slot] = moved;
+				idValues[slot] = idValues[next];
+				slot = next;
+			}
+		}
+		idKeys[slot] = null;
+	}
+
+	/**
+	 * Returns the slot of an item in the id table, or the empty slot it
+	 * would go in.
+	 *
+	 * @param item
+	 * @return
+	 */
+	private int idSlot(VocabItem item) {
+		int mask = idKeys.length - 1;
+		int slot = idHome(item);
+		while (idKeys[slot] != null && idKeys[slot] != item) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private int idHome(VocabItem item) {
+		int h = System.identityHashCode(item) * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & (idKeys.length - 1);
+	}
+
+	/**
+	 * Gives the items new ids from 0 in the same order, so the unused ids
+	 * can be dropped.
+	 */
+	private void renumber() {
+		int[] newIds = new int[nextId];
+		int id = 0;
+		for (int a = 0; a < nextId; a++) {
+			if (items[a] != null) {
+				items[id] = items[a];
+				putId(items[id], id);
+				newIds[a] = id++;
+			}
+		}
+		Arrays.fill(items, id, nextId, null);
+		nextId = id;
+		// Ids keep their order, so the lists stay sorted
+		for (Postings postings : unigrams.values()) {
+			postings.renumber(newIds);
+		}
+		for (Postings postings : bigrams.values()) {
+			postings.renumber(newIds);
+		}
+	}
+
+	/**
+	 * Returns whether an item has the folded text in any of its values.
+	 *
+	 * @param item
+	 * @param q
+	 * @return
+	 */
+	private static boolean matches(VocabItem item, String q) {
+		return contains(item.getEnglish(), q) || contains(item.getRomaji(), q)
+				|| contains(item.getKana(), q) || contains(item.getKanji(), q);
+	}
+
+	/**
+	 * Returns whether a value has the folded text, folding the value as it
+	 * is compared rather than making a folded copy of it.
+	 *
+	 * @param value
+	 * @param q
+	 * @return
+	 */
+	private static boolean contains(String value, String q) {
+		if (value == null) {
+			return false;
+		}
+		int last = value.length() - q.length();
+		for (int a = 0; a <= last; a++) {
+			int b = 0;
+			while (b < q.length() && VocabFilter.fold(value.charAt(a + b)) == q.charAt(b)) {
+				b++;
+			}
+			if (b == q.length()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the distinct characters outside of ASCII and the distinct pairs
+	 * of characters in the values of an item, each sorted.
+	 *
+	 * @param item
+	 * @return the characters and the pairs.
+	 */
+	private static int[][] grams(VocabItem item) {
+		String[] values = {item.getEnglish(), item.getRomaji(), item.getKana(), item.getKanji()};
+		int length = 0;
+		for (String value : values) {
+			length += value == null ? 0 : value.length();
+		}
+		int[] chars = new int[length];
+		int[] pairs = new int[length];
+		int charCount = 0;
+		int pairCount = 0;
+		for (String value : values) {
+			if (value == null) {
+				continue;
+			}
+			char prev = 0;
+			for (int a = 0; a < value.length(); a++) {
+				char c = VocabFilter.fold(value.charAt(a));
+				if (c >= 0x80) {
+					chars[charCount++] = c;
+				}
+				if (a > 0) {
+					pairs[pairCount++] = (prev << 16) | c;
+				}
+				prev = c;
+			}
+		}
+		return new int[][]{distinct(chars, charCount), distinct(pairs, pairCount)};
+	}
+
+	private static int[] distinct(int[] values, int count) {
+		Arrays.sort(values, 0, count);
+		int unique = 0;
+		for (int a = 0; a < count; a++) {
+			if (unique == 0 || values[unique - 1] != values[a]) {
+				values[unique++] = values[a];
+			}
+		}
+		return Arrays.copyOf(values, unique);
+	}
+
+	/**
+	 * A sorted list of item ids.
+	 */
+	private static class Postings {
+		private int[] ids = new int[2];
+		private int size = 0;
+
+		/**
+		 * Adds an id larger than any in the list.
+		 *
+		 * @param id
+		 */
+		void append(int id) {
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, size + (size >> 1) + 1);
+			}
+			ids[size++] = id;
+		}
+
+		/**
+		 * Removes an id from the list.
+		 *
+		 * @param id
+		 * @return true if the id was in the list.
+		 */
+		boolean remove(int id) {
+			int index = Arrays.binarySearch(ids, 0, size, id);
+			if (index < 0) {
+				return false;
+			}
+			System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+			size--;
+			return true;
+		}
+
+		/**
+		 * Keeps only the given ids that are also in this list.
+		 *
+		 * @param other sorted ids, changed in place.
+		 * @param count the number of ids in other.
+		 * @return the number of ids kept.
+		 */
+		int retain(int[] other, int count) {
+			int kept = 0;
+			int from = 0;
+			for (int a = 0; a < count && from < size; a++) {
+				int index = Arrays.binarySearch(ids, from, size, other[a]);
+				if (index >= 0) {
+					other[kept++] = other[a];
+					from = index + 1;
+				}
+				else {
+					from = -index - 1;
+				}
+			}
+			return kept;
+		}
+
+		void renumber(int[] newIds) {
+			for (int a = 0; a < size; a++) {
+				ids[a] = newIds[ids[a]];
+			}
+		}
+	}
+}
@@ -0,0 +1,267 @@
+/*
+ *  ParallelVocabLoader.java
+ *
+ *  GNU GPL License.
+ */
+package psyberchi.app.japanesevocabjsoneditor.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Reads a vocabulary file by parsing its categories at the same time on a
+ * fork-join pool. A quick scan of the bytes first finds where each top level
+ * entry is. Each entry is then parsed on its own, as if it were the only entry
+ * of the object, and the results are added to the model in file order, so the
+ * model is the same as one read by
+ * {@link JsonVocabIO#readJsonFileStreaming(File)}.
+ *
+ * @author Kendall Conrad
+ */
+class ParallelVocabLoader {
+	private static final Logger logger = Logger.getLogger(ParallelVocabLoader.class.getCanonicalName());
+	/**
+	 * About how many bytes of entries one task parses.
+	 */
+	private static final long TASK_SIZE = 256 * 1024;
+	/**
+	 * How often progress is reported while parsing, in ms.
+	 */
+	private static final long PROGRESS_INTERVAL = 200;
+	private static ForkJoinPool pool = null;
+	private final File file;
+	private final JsonVocabIO.ProgressListener listener;
+	private final CategoryScanner scanner = new CategoryScanner();
+	private VocabSource source;
+	private FileChannel channel;
+	private long size;
+	/**
+	 * The spans of the top level entries and what was read from each.
+	 */
+	private List<long[]> entries;
+	private EntryParser.Content[] contents;
+	private final AtomicLong bytesParsed = new AtomicLong();
+	private final AtomicInteger itemsParsed = new AtomicInteger();
+	private final AtomicInteger entriesParsed = new AtomicInteger();
+	private volatile boolean cancelled = false;
+	/**
+	 * The first problem a task had, which stops the other tasks.
+	 */
+	private volatile Exception failure = null;
+	/**
+	 * Parses the entries, counting the items read for progress. The entries
+	 * are parsed on several threads, so the Strings are shared when merging.
+	 */
+	private final EntryParser parser = new EntryParser() {
+		@Override
+		boolean itemsRead(int count) {
+			itemsParsed.addAndGet(count);
+			return !cancelled;
+		}
+	};
+
+	/**
+	 * Constructor.
+	 *
+	 * @param file the file to read.
+	 * @param listener the listener to report progress to, may be null.
+	 */
+	ParallelVocabLoader(File file, JsonVocabIO.ProgressListener listener) {
+		this.file = file;
+		this.listener = listener;
+	}
+
+	/**
+	 * Reads the file.
+	 *
+	 * @return the model read in, null if the file is not a single object
+	 * with more than one entry, in which case it should be read serially.
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	VocabModel read() throws IOException, ParseException {
+		source = VocabSource.of(file);
+		try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			channel = ch;
+			size = channel.size();
+			EntryParser.scan(channel, scanner);
+			entries = scanner.getEntries();
+			if (!scanner.isComplete() || entries.size() < 2) {
+				return null;
+			}
+			contents = new EntryParser.Content[entries.size()];
+			parse();
+		}
+		finally {
+			channel = null;
+		}
+		if (cancelled) {
+			return null;
+		}
+		return merge();
+	}
+
+	/**
+	 * Returns whether the read was cancelled by the listener.
+	 *
+	 * @return
+	 */
+	boolean isCancelled() {
+		return cancelled && failure == null;
+	}
+
+	/**
+	 * Parses all of the entries on the pool, reporting progress while
+	 * waiting.
+	 *
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	private void parse() throws IOException, ParseException {
+		ParseTask task = new ParseTask(0, entries.size());
+		getPool().execute(task);
+		while (true) {
+			try {
+				task.get(PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+				break;
+			}
+			catch (TimeoutException ex) {
+				if (listener != null && !cancelled
+						&& !listener.progress(bytesParsed.get(), size,
+								entriesParsed.get(), itemsParsed.get())) {
+					cancelled = true;
+				}
+			}
+			catch (InterruptedException ex) {
+				cancelled = true;
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while reading", ex);
+			}
+			catch (ExecutionException ex) {
+				throw new IOException(ex.getCause());
+			}
+		}
+		if (failure instanceof ParseException) {
+			throw (ParseException) failure;
+		}
+		if (failure instanceof IOException) {
+			throw (IOException) failure;
+		}
+		if (failure != null) {
+			throw new IOException(failure);
+		}
+	}
+
+	/**
+	 * Adds what was read from the entries to a new model, in file order.
+	 *
+	 * @return
+	 */
+	private VocabModel merge() {
+		VocabModel model = new VocabModel();
+		StringPool pool = new StringPool();
+		int catCount = 0;
+		int vocabCount = 0;
+		for (EntryParser.Content content : contents) {
+			if (content.category == null) {
+				continue;
+			}
+			if (model.addCategory(content.category)) {
+				catCount++;
+			}
+			else {
+				logger.log(Level.WARNING, "Category {0} appears more than once, merging its vocabulary",
+						content.category);
+			}
+			for (VocabItem item : content.items) {
+				item.intern(pool);
+				if (model.addVocabItem(content.category, item)) {
+					vocabCount++;
+				}
+			}
+		}
+		if (source.isSameVersion(VocabSource.of(file))) {
+			model.setSource(source, scanner.getRanges());
+		}
+		if (listener != null) {
+			listener.progress(size, size, catCount, vocabCount);
+		}
+		logger.log(Level.INFO, "Read in {0} categories and {1} vocabulary items from {2} entries.",
+				new Object[]{catCount, vocabCount, entries.size()});
+		pool.logStats(file);
+		return model;
+	}
+
+	/**
+	 * Parses one top level entry.
+	 *
+	 * @param index
+	 * @return
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	private EntryParser.Content parseEntry(int index) throws IOException, ParseException {
+		long start = entries.get(index)[0];
+		long end = entries.get(index)[1];
+		EntryParser.Content content = parser.parse(channel, start, end);
+		bytesParsed.addAndGet(end - start);
+		entriesParsed.incrementAndGet();
+		return content;
+	}
+
+	private static synchronized ForkJoinPool getPool() {
+		if (pool == null) {
+			pool = new ForkJoinPool();
+		}
+		return pool;
+	}
+
+	/**
+	 * Parses a run of entries, splitting it while it is large.
+	 */
+	private class ParseTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int from;
+		private final int to;
+
+		ParseTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 1 && entries.get(to - 1)[1] - entries.get(from)[0] > TASK_SIZE) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new ParseTask(from, mid), new ParseTask(mid, to));
+				return;
+			}
+			for (int a = from; a < to && !cancelled; a++) {
+				try {
+					contents[a] = parseEntry(a);
+				}
+				catch (IOException | ParseException | RuntimeException ex) {
+					synchronized (ParallelVocabLoader.this) {
+						if (failure == null) {
+							failure = ex;
+						}
+					}
+					cancelled = true;
+				}
+			}
+		}
+	}
+}
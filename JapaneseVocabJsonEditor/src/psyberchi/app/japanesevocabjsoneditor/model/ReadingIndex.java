@@ -0,0 +1,224 @@
+/*
+ *  ReadingIndex.java
+ *
+ *  GNU GPL License.
+ */
+package psyberchi.app.japanesevocabjsoneditor.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The romaji and kana readings of vocabulary in sorted order, for finding
+ * the items whose reading starts with what has been typed so far. Readings
+ * are folded the same way as by {@link VocabFilter}, so romaji is in lower
+ * case and kana is in hiragana.
+ *
+ * The readings are kept in one sorted array with the items alongside, so the
+ * items with a prefix are a run of the array found by a binary search, and
+ * come out in reading order. Two arrays take much less memory than a tree of
+ * nodes. Adding or removing a reading moves the part of the arrays after it,
+ * which for edits made by hand is quick enough even for large files.
+ *
+ * @author Kendall Conrad
+ */
+final class ReadingIndex {
+	/**
+	 * The folded readings, sorted, followed by unused space.
+	 */
+	private String[] keys;
+	/**
+	 * The item each reading is from.
+	 */
+	private VocabItem[] items;
+	private int size = 0;
+
+	/**
+	 * Builds the index for the given items all at once.
+	 *
+	 * @param all the items to index.
+	 */
+	ReadingIndex(Collection<VocabItem> all) {
+		Entry[] entries = new Entry[all.size() * 2];
+		int count = 0;
+		for (VocabItem item : all) {
+			String romaji = key(item.getRomaji());
+			String kana = key(item.getKana());
+			if (romaji != null) {
+				entries[count++] = new Entry(romaji, item);
+			}
+			if (kana != null && !kana.equals(romaji)) {
+				entries[count++] = new Entry(kana, item);
+			}
+		}
+		Arrays.sort(entries, 0, count);
+		keys = new String[Math.max(16, count + (count >> 3))];
+		items = new VocabItem[keys.length];
+		for (int a = 0; a < count; a++) {
+			keys[a] = entries[a].key;
+			items[a] = entries[a].item;
+		}
+		size = count;
+	}
+
+	/**
+	 * Returns the number of readings in the index.
+	 *
+	 * @return
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Adds the readings of an item.
+	 *
+	 * @param item
+	 */
+	void add(VocabItem item) {
+		String romaji = key(item.getRomaji());
+		String kana = key(item.getKana());
+		if (romaji != null) {
+			insert(romaji, item);
+		}
+		if (kana != null && !kana.equals(romaji)) {
+			insert(kana, item);
+		}
+	}
+
+	/**
+	 * Removes the readings of an item. Its readings must be the same as when
+	 * it was added.
+	 *
+	 * @param item
+	 */
+	void remove(VocabItem item) {
+		String romaji = key(item.getRomaji());
+		String kana = key(item.getKana());
+		if (romaji != null) {
+			delete(romaji, item);
+		}
+		if (kana != null && !kana.equals(romaji)) {
+			delete(kana, item);
+		}
+	}
+
+	/**
+	 * Finds the items with a romaji or kana reading starting with the given
+	 * prefix.
+	 *
+	 * @param prefix the start of the reading, folded before looking it up.
+	 * @param limit the most items to return.
+	 * @return the items in order of the matching reading, each item once.
+	 */
+	List<VocabItem> find(String prefix, int limit) {
+		String p = VocabFilter.fold(prefix);
+		List<VocabItem> found = new ArrayList<>(Math.min(limit, 64));
+		for (int a = lowerBound(p); a < size && found.size() < limit
+				&& keys[a].startsWith(p); a++) {
+			// When both readings start with the prefix, the item is listed
+			// at the first of them
+			String other = otherKey(items[a], keys[a]);
+			if (other == null || !other.startsWith(p) || other.compareTo(keys[a]) > 0) {
+				found.add(items[a]);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Returns the folded reading to index, null if there is none.
+	 *
+	 * @param reading
+	 * @return
+	 */
+	private static String key(String reading) {
+		if (reading == null || reading.isEmpty()) {
+			return null;
+		}
+		return VocabFilter.fold(reading);
+	}
+
+	/**
+	 * Returns the reading of an item other than the given one.
+	 *
+	 * @param item
+	 * @param key one of the item's readings.
+	 * @return the other reading, null if the item has no other.
+	 */
+	private static String otherKey(VocabItem item, String key) {
+		String romaji = key(item.getRomaji());
+		String kana = key(item.getKana());
+		if (kana == null || kana.equals(romaji)) {
+			return null;
+		}
+		return key.equals(romaji) ? kana : romaji;
+	}
+
+	/**
+	 * Returns the index of the first reading not less than the given one.
+	 *
+	 * @param key
+	 * @return
+	 */
+	private int lowerBound(String key) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (keys[mid].compareTo(key) < 0) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private void insert(String key, VocabItem item) {
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size + (size >> 1) + 1);
+			items = Arrays.copyOf(items, keys.length);
+		}
+		int at = lowerBound(key);
+		System.arraycopy(keys, at, keys, at + 1, size - at);
+		System.arraycopy(items, at, items, at + 1, size - at);
+		keys[at] = key;
+		items[at] = item;
+		size++;
+	}
+
+	private void delete(String key, VocabItem item) {
+		for (int a = lowerBound(key); a < size && keys[a].equals(key); a++) {
+			if (items[a] == item) {
+				System.arraycopy(keys, a + 1, keys, a, size - a - 1);
+				System.arraycopy(items, a + 1, items, a, size - a - 1);
+				size--;
+				keys[size] = null;
+				items[size] = null;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * A reading and its item, for sorting when building.
+	 */
+	private static class Entry implements Comparable<Entry> {
+		final String key;
+		final VocabItem item;
+
+		Entry(String key, VocabItem item) {
+			this.key = key;
+			this.item = item;
+		}
+
+		@Override
+		public int compareTo(Entry other) {
+			return key.compareTo(other.key);
+		}
+	}
+}
@@ -0,0 +1,508 @@
+/*
+ *  RomajiIndex.java
+ *
+ *  GNU GPL License.
+ */
+package psyberchi.app.japanesevocabjsoneditor.model;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * The romaji of vocabulary in a BK-tree, for finding the items spelled
+ * within a few edits of some romaji without comparing it to every item.
+ *
+ * Romaji is first brought to one spelling with {@link #normalize(String)},
+ * so that the ways of writing the same word, such as "toukyou", "tookyoo"
+ * and "tokyo" or "shi" and "si", are the same key. Macron vowels are
+ * read as the plain vowel. The edit distance between keys
+ * then only counts real differences. Each node of the tree holds one key and
+ * the items with it, and its children are kept by their distance from it. By
+ * the triangle inequality only the children within the wanted distance of
+ * the distance to a node can hold matches, so most of the tree is skipped.
+ *
+ * Removing an item leaves its node in place when it was the last with that
+ * key, since the node still sorts its children. The tree is rebuilt once
+ * most of its nodes are empty.
+ *
+ * @author Kendall Conrad
+ */
+final class RomajiIndex {
+	/**
+	 * Spellings that are written more than one way, each with the one used
+	 * for keys. Matched at each position in order.
+	 */
+	private static final String[][] SPELLINGS = {
+		{"sy", "sh"}, {"ty", "ch"}, {"cy", "ch"}, {"zy", "j"}, {"jy", "j"}, {"dy", "j"},
+		{"si", "shi"}, {"ti", "chi"}, {"tu", "tsu"}, {"hu", "fu"}, {"zi", "ji"}, {"di", "ji"},
+		{"du", "zu"}
+	};
+	/**
+	 * How many letters of a key each edit allowed between near duplicates
+	 * needs, so that short words, where one letter makes another word, are
+	 * only grouped when spelled the same.
+	 */
+	static final int LETTERS_PER_EDIT = 5;
+	private Node root = null;
+	/**
+	 * The number of items, nodes, and nodes without any items.
+	 */
+	private int size = 0;
+	private int nodeCount = 0;
+	private int emptyCount = 0;
+
+	/**
+	 * Builds the index for the given items.
+	 *
+	 * @param all
+	 */
+	RomajiIndex(Collection<VocabItem> all) {
+		for (VocabItem item : all) {
+			add(item);
+		}
+	}
+
+	/**
+	 * Returns the number of items in the index.
+	 *
+	 * @return
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Brings romaji to a single spelling for comparing: lower case letters
+	 * only, long vowels and doubled n written once, the Nihon-shiki and
+	 * Kunrei-shiki spellings as Hepburn, and m before b, m or p as n.
+	 *
+	 * @param romaji
+	 * @return the key, empty if the romaji has no letters.
+	 */
+	static String normalize(String romaji) {
+		if (romaji == null || romaji.isEmpty()) {
+			return "";
+		}
+		// Splitting off accents turns a macron vowel into the plain vowel
+		String s = Normalizer.normalize(romaji, Normalizer.Form.NFD).toLowerCase(Locale.ROOT);
+		StringBuilder letters = new StringBuilder(s.length());
+		for (int a = 0; a < s.length(); a++) {
+			char c = s.charAt(a);
+			if (c >= 'a' && c <= 'z') {
+				letters.append(c);
+			}
+		}
+		StringBuilder spelled = new StringBuilder(letters.length() + 4);
+		int pos = 0;
+		next:
+		while (pos < letters.length()) {
+			for (String[] spelling : SPELLINGS) {
+				if (startsWith(letters, spelling[0], pos)) {
+					spelled.append(spelling[1]);
+					pos += spelling[0].length();
+					continue next;
+				}
+			}
+			spelled.append(letters.charAt(pos++));
+		}
+		StringBuilder key = new StringBuilder(spelled.length());
+		for (int a = 0; a < spelled.length(); a++) {
+			char c = spelled.charAt(a);
+			char prev = key.length() == 0 ? 0 : key.charAt(key.length() - 1);
+			if ((c == prev && (isVowel(c) || c == 'n')) || (c == 'u' && prev == 'o')) {
+				continue;
+			}
+			if (c == 'm' && a + 1 < spelled.length() && "bmp".indexOf(spelled.charAt(a + 1)) >= 0) {
+				c = 'n';
+			}
+			key.append(c);
+		}
+		return key.toString();
+	}
+
+	private static boolean startsWith(CharSequence s, String prefix, int pos) {
+		if (pos + prefix.length() > s.length()) {
+			return false;
+		}
+		for (int a = 0; a < prefix.length(); a++) {
+			if (s.charAt(pos + a) != prefix.charAt(a)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isVowel(char c) {
+		return c == 'a' || c == 'i' || c == 'u' || c == 'e' || c == 'o';
+	}
+
+	/**
+	 * Returns the Levenshtein distance between two strings.
+	 *
+	 * @param s
+	 * @param t
+	 * @return the fewest single character insertions, deletions and
+	 * substitutions that turn one into the other.
+	 */
+	static int distance(String s, String t) {
+		int[] prev = new int[t.length() + 1];
+		int[] cur = new int[t.length() + 1];
+		for (int b = 0; b <= t.length(); b++) {
+			prev[b] = b;
+		}
+		for (int a = 1; a <= s.length(); a++) {
+			cur[0] = a;
+			char c = s.charAt(a - 1);
+			for (int b = 1; b <= t.length(); b++) {
+				int cost = c == t.charAt(b - 1) ? 0 : 1;
+				cur[b] = Math.min(Math.min(cur[b - 1], prev[b]) + 1, prev[b - 1] + cost);
+			}
+			int[] swap = prev;
+			prev = cur;
+			cur = swap;
+		}
+		return prev[t.length()];
+	}
+
+	/**
+	 * Adds an item by its romaji. Items without romaji are left out.
+	 *
+	 * @param item
+	 */
+	void add(VocabItem item) {
+		String key = normalize(item.getRomaji());
+		if (key.isEmpty()) {
+			return;
+		}
+		size++;
+		if (root == null) {
+			root = new Node(key);
+			nodeCount++;
+			root.add(item);
+			return;
+		}
+		Node node = root;
+		while (true) {
+			int d = distance(key, node.key);
+			if (d == 0) {
+				if (node.itemCount == 0) {
+					emptyCount--;
+				}
+				node.add(item);
+				return;
+			}
+			Node child = node.child(d);
+			if (child == null) {
+				child = new Node(key);
+				nodeCount++;
+				child.add(item);
+				node.addChild(d, child);
+				return;
+			}
+			node = child;
+		}
+	}
+
+	/**
+	 * Removes an item. Its romaji must be the same as when it was added.
+	 *
+	 * @param item
+	 */
+	void remove(VocabItem item) {
+		String key = normalize(item.getRomaji());
+		Node node = root;
+		while (node != null && !key.isEmpty()) {
+			int d = distance(key, node.key);
+			if (d == 0) {
+				if (node.remove(item)) {
+					size--;
+					if (node.itemCount == 0) {
+						emptyCount++;
+					}
+				}
+				break;
+			}
+			node = node.child(d);
+		}
+		if (emptyCount > nodeCount / 2 && nodeCount > 64) {
+			rebuild();
+		}
+	}
+
+	/**
+	 * Finds the items with romaji within the given distance of the given
+	 * romaji, once both are normalized.
+	 *
+	 * @param romaji the romaji to look for.
+	 * @param maxDistance the most edits allowed.
+	 * @return the items, nearest first.
+	 */
+	List<VocabItem> find(String romaji, int maxDistance) {
+		String key = normalize(romaji);
+		List<List<VocabItem>> byDistance = new ArrayList<>(maxDistance + 1);
+		for (int d = 0; d <= maxDistance; d++) {
+			byDistance.add(new ArrayList<VocabItem>());
+		}
+		if (!key.isEmpty() && root != null) {
+			List<Node> pending = new ArrayList<>();
+			pending.add(root);
+			while (!pending.isEmpty()) {
+				Node node = pending.remove(pending.size() - 1);
+				int d = distance(key, node.key);
+				if (d <= maxDistance) {
+					byDistance.get(d).addAll(Arrays.asList(node.items).subList(0, node.itemCount));
+				}
+				for (int a = 0; a < node.childCount; a++) {
+					if (Math.abs(node.distances[a] - d) <= maxDistance) {
+						pending.add(node.children[a]);
+					}
+				}
+			}
+		}
+		List<VocabItem> found = new ArrayList<>();
+		for (List<VocabItem> items : byDistance) {
+			found.addAll(items);
+		}
+		return found;
+	}
+
+	/**
+	 * Returns the most edits allowed from a key of the given length, one for
+	 * every {@value #LETTERS_PER_EDIT} letters and no more than the given
+	 * most.
+	 *
+	 * @param length the length of the normalized romaji.
+	 * @param maxDistance
+	 * @return
+	 */
+	static int allowedDistance(int length, int maxDistance) {
+		return Math.min(maxDistance, length / LETTERS_PER_EDIT);
+	}
+
+	/**
+	 * Finds the groups of items whose romaji are near each other. Keys are
+	 * taken in turn, and each key not yet in a group starts one with the keys
+	 * not yet in a group near it. Keys are not grouped through a third key,
+	 * so a run of words each a letter apart doesn't end up as one group. Two
+	 * keys are near when within the distance
+	 * {@link #allowedDistance(int, int)} gives for the shorter of them.
+	 *
+	 * Searching the tree once for every key is too slow for a large file, so
+	 * the pairs of near keys are found by deleting letters instead: keys
+	 * within some edits of each other have a string in common that each
+	 * reaches by deleting no more letters than that.
+	 *
+	 * @param maxDistance the most edits between near duplicates.
+	 * @return the groups of two or more items, with the items spelled the
+	 * same next to each other.
+	 */
+	List<List<VocabItem>> findNearDuplicates(int maxDistance) {
+		List<Node> nodes = new ArrayList<>(nodeCount);
+		if (root != null) {
+			List<Node> all = new ArrayList<>(nodeCount);
+			all.add(root);
+			for (int a = 0; a < all.size(); a++) {
+				Node node = all.get(a);
+				if (node.itemCount > 0) {
+					nodes.add(node);
+				}
+				all.addAll(Arrays.asList(node.children).subList(0, node.childCount));
+			}
+		}
+		long[] pairs = nearPairs(nodes, maxDistance);
+		boolean[] grouped = new boolean[nodes.size()];
+		List<List<VocabItem>> duplicates = new ArrayList<>();
+		int p = 0;
+		for (int a = 0; a < nodes.size(); a++) {
+			if (grouped[a]) {
+				continue;
+			}
+			grouped[a] = true;
+			Node node = nodes.get(a);
+			List<VocabItem> group = new ArrayList<>(Arrays.asList(node.items).subList(0, node.itemCount));
+			for (; p < pairs.length && (int) (pairs[p] >>> 32) <= a; p++) {
+				int b = (int) pairs[p];
+				if ((int) (pairs[p] >>> 32) == a && !grouped[b]) {
+					grouped[b] = true;
+					Node other = nodes.get(b);
+					group.addAll(Arrays.asList(other.items).subList(0, other.itemCount));
+				}
+			}
+			if (group.size() > 1) {
+				duplicates.add(group);
+			}
+		}
+		return duplicates;
+	}
+
+	/**
+	 * Finds the pairs of nodes with keys near each other.
+	 *
+	 * @param nodes
+	 * @param maxDistance
+	 * @return the indexes of each pair both ways round, the first index in
+	 * the high 32 bits and the second in the low 32 bits, sorted.
+	 */
+	private static long[] nearPairs(List<Node> nodes, int maxDistance) {
+		// The hash of each string made by deleting letters, with its node
+		long[] variants = new long[nodes.size() * 8];
+		int count = 0;
+		Set<String> deleted = new HashSet<>();
+		for (int a = 0; a < nodes.size(); a++) {
+			String key = nodes.get(a).key;
+			int allowed = allowedDistance(key.length(), maxDistance);
+			if (allowed == 0) {
+				continue;
+			}
+			deleted.clear();
+			deleted.add(key);
+			addDeletions(key, allowed, deleted);
+			if (count + deleted.size() > variants.length) {
+				variants = Arrays.copyOf(variants, Math.max(count + deleted.size(), variants.length * 2));
+			}
+			for (String s : deleted) {
+				variants[count++] = ((long) s.hashCode() << 32) | a;
+			}
+		}
+		Arrays.sort(variants, 0, count);
+		// Nodes with a hash in common are candidates, each pair once
+		long[] candidates = new long[16];
+		int candidateCount = 0;
+		for (int start = 0, end; start < count; start = end) {
+			end = start + 1;
+			while (end < count && (variants[end] >>> 32) == (variants[start] >>> 32)) {
+				end++;
+			}
+			for (int a = start; a < end; a++) {
+				for (int b = a + 1; b < end; b++) {
+					if (candidateCount == candidates.length) {
+						candidates = Arrays.copyOf(candidates, candidateCount * 2);
+					}
+					// Sorted, so the first index is the smaller
+					candidates[candidateCount++] = (variants[a] << 32) | (int) variants[b];
+				}
+			}
+		}
+		Arrays.sort(candidates, 0, candidateCount);
+		long[] pairs = new long[16];
+		int pairCount = 0;
+		for (int c = 0; c < candidateCount; c++) {
+			if (c > 0 && candidates[c] == candidates[c - 1]) {
+				continue;
+			}
+			int a = (int) (candidates[c] >>> 32);
+			int b = (int) candidates[c];
+			String s = nodes.get(a).key;
+			String t = nodes.get(b).key;
+			// Hashes can be equal for different strings
+			if (a == b || distance(s, t) > allowedDistance(Math.min(s.length(), t.length()), maxDistance)) {
+				continue;
+			}
+			if (pairCount + 2 > pairs.length) {
+				pairs = Arrays.copyOf(pairs, pairs.length * 2);
+			}
+			pairs[pairCount++] = ((long) a << 32) | b;
+			pairs[pairCount++] = ((long) b << 32) | a;
+		}
+		Arrays.sort(pairs, 0, pairCount);
+		return Arrays.copyOf(pairs, pairCount);
+	}
+
+	/**
+	 * Adds the strings made by deleting up to the given number of letters
+	 * from a string.
+	 *
+	 * @param s
+	 * @param count
+	 * @param into
+	 */
+	private static void addDeletions(String s, int count, Set<String> into) {
+		for (int a = 0; a < s.length(); a++) {
+			String d = s.substring(0, a) + s.substring(a + 1);
+			if (into.add(d) && count > 1) {
+				addDeletions(d, count - 1, into);
+			}
+		}
+	}
+
+	/**
+	 * Builds the tree again from the items, dropping the empty nodes.
+	 */
+	private void rebuild() {
+		List<VocabItem> items = new ArrayList<>(size);
+		if (root != null) {
+			List<Node> pending = new ArrayList<>();
+			pending.add(root);
+			while (!pending.isEmpty()) {
+				Node node = pending.remove(pending.size() - 1);
+				items.addAll(Arrays.asList(node.items).subList(0, node.itemCount));
+				pending.addAll(Arrays.asList(node.children).subList(0, node.childCount));
+			}
+		}
+		root = null;
+		size = 0;
+		nodeCount = 0;
+		emptyCount = 0;
+		for (VocabItem item : items) {
+			add(item);
+		}
+	}
+
+	/**
+	 * A key, the items with it, and the children by their distance from it.
+	 */
+	private static class Node {
+		final String key;
+		VocabItem[] items = new VocabItem[1];
+		int itemCount = 0;
+		int[] distances = new int[0];
+		Node[] children = new Node[0];
+		int childCount = 0;
+
+		Node(String key) {
+			this.key = key;
+		}
+
+		void add(VocabItem item) {
+			if (itemCount == items.length) {
+				items = Arrays.copyOf(items, itemCount * 2);
+			}
+			items[itemCount++] = item;
+		}
+
+		boolean remove(VocabItem item) {
+			for (int a = 0; a < itemCount; a++) {
+				if (items[a] == item) {
+					System.arraycopy(items, a + 1, items, a, itemCount - a - 1);
+					items[--itemCount] = null;
+					return true;
+				}
+			}
+			return false;
+		}
+
+		Node child(int distance) {
+			for (int a = 0; a < childCount; a++) {
+				if (distances[a] == distance) {
+					return children[a];
+				}
+			}
+			return null;
+		}
+
+		void addChild(int distance, Node child) {
+			if (childCount == children.length) {
+				distances = Arrays.copyOf(distances, childCount + 2);
+				children = Arrays.copyOf(children, childCount + 2);
+			}
+			distances[childCount] = distance;
+			children[childCount++] = child;
+		}
+	}
+}
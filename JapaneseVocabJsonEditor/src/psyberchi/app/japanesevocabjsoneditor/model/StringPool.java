@@ -0,0 +1,101 @@
+/*
+ *  StringPool.java
+ *
+ *  GNU GPL License.
+ */
+package psyberchi.app.japanesevocabjsoneditor.model;
+
+import java.util.HashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Shares one String between equal values read from a file. Vocabulary files
+ * repeat the same romaji, kana and kanji, and category markers, across
+ * categories, and the parser creates a new String for every occurrence. A
+ * pool lives only as long as the read it is used for, unlike
+ * {@link String#intern()}. It is not safe for use by several threads.
+ *
+ * @author Kendall Conrad
+ */
+final class StringPool {
+	private static final Logger logger = Logger.getLogger(StringPool.class.getCanonicalName());
+	/**
+	 * Rough size of a String object and the header of its char array, in
+	 * bytes, on a 64-bit VM.
+	 */
+	private static final int STRING_OVERHEAD = 24 + 16;
+	private final HashMap<String, String> pool = new HashMap<>();
+	private int lookups = 0;
+	private int hits = 0;
+	private long bytesSaved = 0;
+
+	/**
+	 * Returns the pooled String equal to the given one, adding it to the pool
+	 * if there is none.
+	 *
+	 * @param s the String, may be null.
+	 * @return the pooled String, null if s is null.
+	 */
+	String intern(String s) {
+		if (s == null) {
+			return null;
+		}
+		lookups++;
+		String pooled = pool.get(s);
+		if (pooled == null) {
+			pool.put(s, s);
+			return s;
+		}
+		hits++;
+		// The duplicate can be collected now, char array rounded up to 8 bytes
+		bytesSaved += STRING_OVERHEAD + ((s.length() * 2 + 7) & ~7);
+		return pooled;
+	}
+
+	/**
+	 * Returns the number of distinct Strings in the pool.
+	 *
+	 * @return
+	 */
+	int size() {
+		return pool.size();
+	}
+
+	/**
+	 * Returns the number of Strings looked up.
+	 *
+	 * @return
+	 */
+	int getLookupCount() {
+		return lookups;
+	}
+
+	/**
+	 * Returns the number of Strings that were replaced by a pooled one.
+	 *
+	 * @return
+	 */
+	int getHitCount() {
+		return hits;
+	}
+
+	/**
+	 * Returns an estimate of the heap freed by sharing Strings, in bytes.
+	 *
+	 * @return
+	 */
+	long getBytesSaved() {
+		return bytesSaved;
+	}
+
+	/**
+	 * Logs how much the pool saved.
+	 *
+	 * @param what what was read, for the log message.
+	 */
+	void logStats(Object what) {
+		logger.log(Level.INFO, "Shared {0} of {1} strings read from {2}, {3} distinct, about {4} KB saved",
+				new Object[]{hits, lookups, what, pool.size(), bytesSaved / 1024});
+	}
+}
@@ -0,0 +1,536 @@
+/*
+ *  VocabCategory.java
+ *
+ *  GNU GPL License.
+ */
+package psyberchi.app.japanesevocabjsoneditor.model;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Holds the vocabulary of one category along with a hash index of the items
+ * so membership checks don't have to scan the list. Items added to a category
+ * keep a reference back to it so changes made through their setters keep the
+ * index up to date.
+ *
+ * The items are kept in an array in the order they were added, and each item
+ * knows its slot, so removing one just empties its slot. The array is packed
+ * again once it has to grow or half of it is empty. The list of items handed
+ * out is a view of the array, which is copied before a slot is emptied while
+ * a view of it is out, so the list never changes under whoever has it.
+ *
+ * A category can also be left unread when its file is opened, in which case
+ * its vocabulary is read in the first time it is needed. The reading itself
+ * can be done ahead on another thread with {@link #read()}, leaving only the
+ * adding of the items to the thread that owns the model.
+ *
+ * @author Kendall Conrad
+ */
+class VocabCategory {
+	private static final Logger logger = Logger.getLogger(VocabCategory.class.getCanonicalName());
+	/**
+	 * The model the category belongs to.
+	 */
+	private final VocabModel model;
+	/**
+	 * The name of the category.
+	 */
+	private String name;
+	/**
+	 * The vocabulary in the category in the order added, null in the slots of
+	 * removed items.
+	 */
+	private VocabItem[] slots = new VocabItem[4];
+	private int slotCount = 0;
+	private int removedCount = 0;
+	/**
+	 * The list of the items handed out, null if the items changed since.
+	 */
+	private List<VocabItem> view = null;
+	/**
+	 * Whether the slots are seen through a view, so must not be changed.
+	 */
+	private boolean shared = false;
+	/**
+	 * The snapshot being written from the items, which is given a copy of an
+	 * item before it changes. Null if there is none.
+	 */
+	private VocabSnapshot.Entry snapshot = null;
+	/**
+	 * Counts of the items in the category by their value. A count is kept in
+	 * case an edit makes two items equal.
+	 */
+	private final HashMap<VocabItem, Integer> index = new HashMap<>();
+	/**
+	 * Counts the changes made to the category.
+	 */
+	private long modCount = 0;
+	/**
+	 * Sorted copies of the items by the order they are sorted in, made at
+	 * modification count {@link #sortedModCount}.
+	 */
+	private HashMap<Comparator<VocabItem>, List<VocabItem>> sorted = null;
+	private long sortedModCount = -1;
+	/**
+	 * Where the category is in the model's source file, -1 if it is not in
+	 * it or has changed since.
+	 */
+	private long sourceStart = -1;
+	private long sourceEnd = -1;
+	/**
+	 * Reads the vocabulary in when first needed, null once it has been read.
+	 */
+	private CategoryLoader loader = null;
+	/**
+	 * The name and place of the unread category in the loader's file, and
+	 * how many items it holds there.
+	 */
+	private String loadName = null;
+	private long loadStart = -1;
+	private long loadEnd = -1;
+	private int pendingCount = 0;
+	/**
+	 * The vocabulary read ahead but not yet added, guarded by the category.
+	 */
+	private List<VocabItem> readItems = null;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param model the model the category belongs to.
+	 * @param name the name of the category.
+	 */
+	VocabCategory(VocabModel model, String name) {
+		this.model = model;
+		this.name = name;
+	}
+
+	/**
+	 * Adds an item to the category if an equal item isn't already in it.
+	 *
+	 * @param item the item to add.
+	 * @return true if added, false otherwise.
+	 */
+	boolean add(VocabItem item) {
+		ensureLoaded();
+		if (index.containsKey(item)) {
+			return false;
+		}
+		append(item);
+		changed();
+		model.itemAdded(this, item);
+		return true;
+	}
+
+	/**
+	 * Returns whether an item equal to the given one is in the category.
+	 *
+	 * @param item
+	 * @return
+	 */
+	boolean contains(VocabItem item) {
+		ensureLoaded();
+		return index.containsKey(item);
+	}
+
+	/**
+	 * Returns the items of the category. The list is not changed by later
+	 * changes to the category, which give out a new list.
+	 *
+	 * @return an unmodifiable list of the items.
+	 */
+	List<VocabItem> getItems() {
+		ensureLoaded();
+		if (view == null) {
+			if (removedCount > 0) {
+				pack(slotCount);
+			}
+			view = Collections.unmodifiableList(Arrays.asList(slots).subList(0, slotCount));
+			shared = true;
+		}
+		return view;
+	}
+
+	/**
+	 * Returns the items of the category for a snapshot, which is given a copy
+	 * of any of them before it is edited or removed from then on. A category
+	 * not yet read in is left unread, and the snapshot is handed what it is
+	 * read in with.
+	 *
+	 * @param entry the category's entry in the snapshot.
+	 * @return an unmodifiable list of the items, null if the category has not
+	 * been read in.
+	 */
+	List<VocabItem> freeze(VocabSnapshot.Entry entry) {
+		snapshot = entry;
+		return isLoaded() ? getItems() : null;
+	}
+
+	/**
+	 * Returns the items of the category sorted in the given order. The sorted
+	 * list is kept for each order until the category changes.
+	 *
+	 * @param order
+	 * @return an unmodifiable sorted list of the items.
+	 */
+	List<VocabItem> getSortedItems(Comparator<VocabItem> order) {
+		ensureLoaded();
+		if (sorted == null || sortedModCount != modCount) {
+			sorted = new HashMap<>(4);
+			sortedModCount = modCount;
+		}
+		List<VocabItem> list = sorted.get(order);
+		if (list == null) {
+			ArrayList<VocabItem> copy;
+			if (order instanceof VocabComparator) {
+				copy = ((VocabComparator) order).sort(getItems());
+			}
+			else {
+				copy = new ArrayList<>(getItems());
+				Collections.sort(copy, order);
+			}
+			list = Collections.unmodifiableList(copy);
+			sorted.put(order, list);
+		}
+		return list;
+	}
+
+	/**
+	 * @return the model
+	 */
+	VocabModel getModel() {
+		return model;
+	}
+
+	/**
+	 * @return the name
+	 */
+	String getName() {
+		return name;
+	}
+
+	/**
+	 * @param name the name to set
+	 */
+	void setName(String name) {
+		this.name = name;
+		changed();
+	}
+
+	/**
+	 * Returns a count of the changes made to the category.
+	 *
+	 * @return
+	 */
+	long getModificationCount() {
+		return modCount;
+	}
+
+	/**
+	 * Returns whether the category has changed since it was read from or
+	 * written to the model's source file.
+	 *
+	 * @return
+	 */
+	boolean isModified() {
+		return sourceStart < 0;
+	}
+
+	/**
+	 * @return the start of the category in the source file, -1 if none.
+	 */
+	long getSourceStart() {
+		return sourceStart;
+	}
+
+	/**
+	 * @return the end of the category in the source file, -1 if none.
+	 */
+	long getSourceEnd() {
+		return sourceEnd;
+	}
+
+	/**
+	 * Records where the unchanged category is in the source file.
+	 *
+	 * @param start
+	 * @param end
+	 */
+	void setSourceRange(long start, long end) {
+		sourceStart = start;
+		sourceEnd = end;
+	}
+
+	/**
+	 * Removes the given item, or an item equal to it, from the category.
+	 *
+	 * @param item the item to remove.
+	 * @return the item that was removed, null if none was.
+	 */
+	VocabItem remove(VocabItem item) {
+		ensureLoaded();
+		if (!index.containsKey(item)) {
+			return null;
+		}
+		// Prefer the same instance over one that only has equal values, which
+		// has to be looked for
+		int pos = item.getCategory() == this ? item.getPosition() : -1;
+		for (int a = 0; pos < 0 && a < slotCount; a++) {
+			if (item.equals(slots[a])) {
+				pos = a;
+			}
+		}
+		VocabItem removed = slots[pos];
+		preserve(removed);
+		if (shared) {
+			slots = slots.clone();
+			shared = false;
+		}
+		slots[pos] = null;
+		removedCount++;
+		view = null;
+		if (removedCount > slotCount / 2) {
+			pack(slotCount - removedCount);
+		}
+		indexRemove(removed);
+		removed.setCategory(null);
+		changed();
+		model.itemRemoved(this, removed);
+		return removed;
+	}
+
+	/**
+	 * Returns the number of items in the category. Before the category has
+	 * been read in this is the number of items in its file, which may count
+	 * items that turn out to be invalid or repeated.
+	 *
+	 * @return
+	 */
+	int size() {
+		return loader == null ? slotCount - removedCount : pendingCount;
+	}
+
+	/**
+	 * Leaves the category to be read in from a file when first needed.
+	 *
+	 * @param loader reads the file.
+	 * @param start the start of the category's range in the file.
+	 * @param end the end of the category's range in the file.
+	 * @param count the number of items in the file.
+	 */
+	void setLoader(CategoryLoader loader, long start, long end, int count) {
+		loader.register();
+		this.loader = loader;
+		this.loadName = name;
+		this.loadStart = start;
+		this.loadEnd = end;
+		this.pendingCount = count;
+	}
+
+	/**
+	 * Returns whether the vocabulary of the category has been read in.
+	 *
+	 * @return
+	 */
+	boolean isLoaded() {
+		return loader == null;
+	}
+
+	/**
+	 * Reads the vocabulary of the category from its file without adding it,
+	 * so it can be called from any thread. It is kept for {@link #load()},
+	 * and a second call returns what the first read.
+	 *
+	 * @return the vocabulary read, null if the category has been read in.
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	synchronized List<VocabItem> read() throws IOException, ParseException {
+		if (loader == null) {
+			return null;
+		}
+		if (readItems == null) {
+			readItems = loader.load(loadName, loadStart, loadEnd);
+		}
+		return readItems;
+	}
+
+	/**
+	 * Reads in the vocabulary of the category if it hasn't been yet, using
+	 * what {@link #read()} read ahead if it was called. Reading in is not a
+	 * change to the category.
+	 *
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	void load() throws IOException, ParseException {
+		List<VocabItem> read;
+		synchronized (this) {
+			try {
+				read = read();
+			}
+			catch (IOException | ParseException ex) {
+				logger.log(Level.SEVERE, "Could not read category {0} from ''{1}'': {2}",
+						new Object[]{name, loader.getFile(), ex.toString()});
+				throw ex;
+			}
+			if (read == null) {
+				return;
+			}
+			loader = null;
+			readItems = null;
+			if (snapshot != null) {
+				snapshot.setRead(read);
+			}
+		}
+		int count = pendingCount;
+		pendingCount = 0;
+		for (VocabItem item : read) {
+			if (!index.containsKey(item)) {
+				append(item);
+			}
+		}
+		model.categoryLoaded(this, count);
+	}
+
+	/**
+	 * Reads in the vocabulary of the category if it hasn't been yet, for the
+	 * getters. Callers that can handle a failure should use {@link #load()}
+	 * first.
+	 *
+	 * @throws IllegalStateException if the vocabulary can't be read.
+	 */
+	void ensureLoaded() {
+		if (loader == null) {
+			return;
+		}
+		try {
+			load();
+		}
+		catch (IOException | ParseException ex) {
+			throw new IllegalStateException("Could not read category " + name, ex);
+		}
+	}
+
+	/**
+	 * Called by an item of the category just before one of its values
+	 * changes.
+	 *
+	 * @param item
+	 */
+	void itemChanging(VocabItem item) {
+		preserve(item);
+		indexRemove(item);
+		model.itemChanging(this, item);
+	}
+
+	/**
+	 * Called by an item of the category just after one of its values changed.
+	 *
+	 * @param item
+	 */
+	void itemChanged(VocabItem item) {
+		indexAdd(item);
+		changed();
+		model.itemChanged(this, item);
+	}
+
+	/**
+	 * Gives the snapshot being written a copy of an item about to change.
+	 *
+	 * @param item
+	 */
+	private void preserve(VocabItem item) {
+		if (snapshot != null && !snapshot.preserve(item)) {
+			snapshot = null;
+		}
+	}
+
+	/**
+	 * Puts an item in the next slot and indexes it.
+	 *
+	 * @param item
+	 */
+	private void append(VocabItem item) {
+		if (slotCount == slots.length) {
+			pack(Math.max(slotCount - removedCount, 2) * 3 / 2);
+		}
+		// Past the end of any view, so the slot can be filled when shared
+		slots[slotCount] = item;
+		item.setPosition(slotCount++);
+		view = null;
+		indexAdd(item);
+		item.setCategory(this);
+	}
+
+	/**
+	 * Moves the items into a new array, dropping the empty slots.
+	 *
+	 * @param capacity the length of the new array, at least the number of
+	 * items.
+	 */
+	private void pack(int capacity) {
+		VocabItem[] packed = new VocabItem[Math.max(capacity, 4)];
+		int count = 0;
+		for (int a = 0; a < slotCount; a++) {
+			if (slots[a] != null) {
+				slots[a].setPosition(count);
+				packed[count++] = slots[a];
+			}
+		}
+		slots = packed;
+		slotCount = count;
+		removedCount = 0;
+		shared = false;
+		view = null;
+	}
+
+	/**
+	 * Notes a change to the category, which no longer matches the source file.
+	 */
+	private void changed() {
+		modCount++;
+		sourceStart = -1;
+		sourceEnd = -1;
+	}
+
+	/**
+	 * Adds an item to the value index.
+	 *
+	 * @param item
+	 */
+	private void indexAdd(VocabItem item) {
+		Integer count = index.get(item);
+		index.put(item, count == null ? 1 : count + 1);
+	}
+
+	/**
+	 * Removes an item from the value index.
+	 *
+	 * @param item
+	 */
+	private void indexRemove(VocabItem item) {
+		Integer count = index.get(item);
+		if (count == null) {
+			return;
+		}
+		if (count > 1) {
+			// The key may be this very item, which is about to change, so
+			// re-key the remaining count with a copy that never changes.
+			index.remove(item);
+			index.put(item.copy(), count - 1);
+		}
+		else {
+			index.remove(item);
+		}
+	}
+}
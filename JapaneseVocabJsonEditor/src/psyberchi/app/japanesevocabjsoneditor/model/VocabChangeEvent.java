@@ -0,0 +1,37 @@
+/*
+ *  VocabChangeEvent.java
+ *
+ *  GNU GPL License.
+ */
+package psyberchi.app.japanesevocabjsoneditor.model;
+
+import java.beans.PropertyChangeEvent;
+
+/**
+ * A change made to a {@link VocabModel}. For category changes the values are
+ * the category names, for vocabulary changes they are the VocabItem before
+ * and after the change. The item before a change is a copy; the item after it
+ * is the model's own and should not be kept.
+ *
+ * @author Kendall Conrad
+ */
+public class VocabChangeEvent extends PropertyChangeEvent {
+	private static final long serialVersionUID = 1L;
+	/**
+	 * The name of the category that changed or holds the vocabulary.
+	 */
+	private final String category;
+
+	public VocabChangeEvent(VocabModel source, String propertyName, String category,
+			Object oldValue, Object newValue) {
+		super(source, propertyName, oldValue, newValue);
+		this.category = category;
+	}
+
+	/**
+	 * @return the category
+	 */
+	public String getCategory() {
+		return category;
+	}
+}
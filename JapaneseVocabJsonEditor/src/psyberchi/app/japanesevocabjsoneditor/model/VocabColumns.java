@@ -0,0 +1,313 @@
+/*
+ *  VocabColumns.java
+ *
+ *  GNU GPL License.
+ */
+package psyberchi.app.japanesevocabjsoneditor.model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Column storage for the values of many {@link VocabItem}s. The text of all
+ * the items is kept in one byte array, with each distinct value stored once,
+ * and each item is a row of offsets into it plus its lesson. Values that fit
+ * in Latin-1, such as English and romaji, take one byte per char and others
+ * two, as UTF-16. Packed items
+ * keep no Strings of their own and read their values from their row, so a
+ * large model holds a few big arrays instead of four Strings per item.
+ *
+ * Columns never change once built, so they can be read from any thread.
+ * Items leave their row when one of their values is set.
+ *
+ * @author Kendall Conrad
+ */
+final class VocabColumns {
+	static final int ENGLISH = 0;
+	static final int ROMAJI = 1;
+	static final int KANA = 2;
+	static final int KANJI = 3;
+	/**
+	 * The number of text fields per row.
+	 */
+	private static final int FIELDS = 4;
+	/**
+	 * The most bytes put in one block of columns.
+	 */
+	private static final int MAX_BYTES = Integer.MAX_VALUE - 16;
+	/**
+	 * The text of all the values.
+	 */
+	private final byte[] bytes;
+	/**
+	 * The start in bytes and length in chars of each value, {@link #FIELDS}
+	 * per row. The length of a UTF-16 value is stored as its complement.
+	 */
+	private final int[] starts;
+	private final int[] lengths;
+	private final int[] lessons;
+
+	private VocabColumns(byte[] bytes, int[] starts, int[] lengths, int[] lessons) {
+		this.bytes = bytes;
+		this.starts = starts;
+		this.lengths = lengths;
+		this.lessons = lessons;
+	}
+
+	/**
+	 * Moves the values of the given items into new columns, making each item
+	 * read its values from its row. Items that can't be packed, such as ones
+	 * missing a value, are left as they are.
+	 *
+	 * @param items
+	 * @return the number of items packed.
+	 */
+	static int pack(List<VocabItem> items) {
+		int packed = 0;
+		int from = 0;
+		while (from < items.size()) {
+			Builder builder = new Builder();
+			int to = from;
+			while (to < items.size() && builder.add(items.get(to))) {
+				to++;
+			}
+			if (to == from) {
+				// Too large even for columns of its own
+				from++;
+				continue;
+			}
+			VocabColumns columns = builder.build();
+			for (int a = from; a < to; a++) {
+				items.get(a).attach(columns, a - from);
+			}
+			packed += to - from;
+			from = to;
+		}
+		return packed;
+	}
+
+	/**
+	 * Returns the number of rows.
+	 *
+	 * @return
+	 */
+	int size() {
+		return lessons.length;
+	}
+
+	/**
+	 * Returns a value of a row as a new String.
+	 *
+	 * @param row
+	 * @param field one of {@link #ENGLISH}, {@link #ROMAJI}, {@link #KANA} or
+	 * {@link #KANJI}.
+	 * @return
+	 */
+	String get(int row, int field) {
+		int i = row * FIELDS + field;
+		if (lengths[i] >= 0) {
+			return new String(bytes, starts[i], lengths[i], StandardCharsets.ISO_8859_1);
+		}
+		char[] chars = new char[~lengths[i]];
+		for (int a = 0; a < chars.length; a++) {
+			chars[a] = charAt(i, a);
+		}
+		return new String(chars);
+	}
+
+	int getLesson(int row) {
+		return lessons[row];
+	}
+
+	/**
+	 * Returns the same hash code as the String of a value, without creating
+	 * the String.
+	 *
+	 * @param row
+	 * @param field
+	 * @return
+	 */
+	int hash(int row, int field) {
+		int i = row * FIELDS + field;
+		int h = 0;
+		for (int a = 0, length = length(i); a < length; a++) {
+			h = 31 * h + charAt(i, a);
+		}
+		return h;
+	}
+
+	/**
+	 * Returns whether a value of a row equals the given String.
+	 *
+	 * @param row
+	 * @param field
+	 * @param s
+	 * @return
+	 */
+	boolean equals(int row, int field, String s) {
+		int i = row * FIELDS + field;
+		if (s == null || s.length() != length(i)) {
+			return false;
+		}
+		for (int a = 0; a < s.length(); a++) {
+			if (charAt(i, a) != s.charAt(a)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns whether a value of a row equals the same value of a row of
+	 * other columns.
+	 *
+	 * @param row
+	 * @param field
+	 * @param other
+	 * @param otherRow
+	 * @return
+	 */
+	boolean equals(int row, int field, VocabColumns other, int otherRow) {
+		int i = row * FIELDS + field;
+		int j = otherRow * FIELDS + field;
+		if (lengths[i] != other.lengths[j]) {
+			return false;
+		}
+		if (other == this && starts[i] == starts[j]) {
+			// Distinct values are only stored once
+			return true;
+		}
+		for (int a = 0, length = length(i); a < length; a++) {
+			if (charAt(i, a) != other.charAt(j, a)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the length in chars of a value.
+	 *
+	 * @param i the index of the value.
+	 * @return
+	 */
+	private int length(int i) {
+		return lengths[i] >= 0 ? lengths[i] : ~lengths[i];
+	}
+
+	/**
+	 * Returns a char of a value.
+	 *
+	 * @param i the index of the value.
+	 * @param index the index of the char in the value.
+	 * @return
+	 */
+	private char charAt(int i, int index) {
+		if (lengths[i] >= 0) {
+			return (char) (bytes[starts[i] + index] & 0xFF);
+		}
+		int b = starts[i] + index * 2;
+		return (char) (((bytes[b] & 0xFF) << 8) | (bytes[b + 1] & 0xFF));
+	}
+
+	/**
+	 * Collects the values of items into new columns.
+	 */
+	private static class Builder {
+		private byte[] bytes = new byte[1024];
+		private int byteCount = 0;
+		private int[] starts = new int[64 * FIELDS];
+		private int[] lengths = new int[64 * FIELDS];
+		private int[] lessons = new int[64];
+		private int rows = 0;
+		/**
+		 * Where each distinct value already added starts.
+		 */
+		private final HashMap<String, Integer> offsets = new HashMap<>();
+
+		/**
+		 * Adds the values of an item as the next row.
+		 *
+		 * @param item
+		 * @return true if added, false if the columns are full.
+		 */
+		boolean add(VocabItem item) {
+			String[] values = {item.getEnglish(), item.getRomaji(), item.getKana(), item.getKanji()};
+			long needed = 0;
+			for (String value : values) {
+				if (value == null) {
+					// Columns have no place for a missing value
+					return false;
+				}
+				if (!offsets.containsKey(value)) {
+					needed += value.length() * 2L;
+				}
+			}
+			if (byteCount + needed > MAX_BYTES) {
+				return false;
+			}
+			if (rows == lessons.length) {
+				lessons = Arrays.copyOf(lessons, rows * 2);
+				starts = Arrays.copyOf(starts, rows * 2 * FIELDS);
+				lengths = Arrays.copyOf(lengths, rows * 2 * FIELDS);
+			}
+			for (int f = 0; f < FIELDS; f++) {
+				starts[rows * FIELDS + f] = offset(values[f]);
+				lengths[rows * FIELDS + f] = isLatin1(values[f])
+						? values[f].length() : ~values[f].length();
+			}
+			lessons[rows++] = item.getLesson();
+			return true;
+		}
+
+		VocabColumns build() {
+			return new VocabColumns(Arrays.copyOf(bytes, byteCount),
+					Arrays.copyOf(starts, rows * FIELDS),
+					Arrays.copyOf(lengths, rows * FIELDS),
+					Arrays.copyOf(lessons, rows));
+		}
+
+		/**
+		 * Returns where a value starts, adding it if it is new.
+		 *
+		 * @param value
+		 * @return
+		 */
+		private int offset(String value) {
+			Integer start = offsets.get(value);
+			if (start != null) {
+				return start;
+			}
+			boolean latin1 = isLatin1(value);
+			int size = latin1 ? value.length() : value.length() * 2;
+			if (byteCount + size > bytes.length) {
+				bytes = Arrays.copyOf(bytes, (int) Math.min(MAX_BYTES,
+						Math.max((long) bytes.length * 2, (long) byteCount + size)));
+			}
+			start = byteCount;
+			for (int a = 0; a < value.length(); a++) {
+				char c = value.charAt(a);
+				if (latin1) {
+					bytes[byteCount++] = (byte) c;
+				}
+				else {
+					bytes[byteCount++] = (byte) (c >> 8);
+					bytes[byteCount++] = (byte) c;
+				}
+			}
+			offsets.put(value, start);
+			return start;
+		}
+
+		private static boolean isLatin1(String value) {
+			for (int a = 0; a < value.length(); a++) {
+				if (value.charAt(a) > 0xFF) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ *  VocabComparator.java
+ *
+ *  GNU GPL License.
+ */
+package psyberchi.app.japanesevocabjsoneditor.model;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * Orders vocabulary by one of its values the way a reader of that value
+ * would expect, using a Collator rather than comparing chars. English and
+ * romaji follow English collation, kana follows gojuon order with hiragana
+ * and katakana side by side, and kanji is ordered by its reading in kana.
+ * {@link #sort(Collection)} makes the CollationKeys once per item for the
+ * sort, so the sort itself only compares keys, and drops them after.
+ *
+ * @author Kendall Conrad
+ */
+public final class VocabComparator implements Comparator<VocabItem> {
+	public static final VocabComparator ENGLISH = new VocabComparator(VocabColumns.ENGLISH);
+	public static final VocabComparator ROMAJI = new VocabComparator(VocabColumns.ROMAJI);
+	public static final VocabComparator KANA = new VocabComparator(VocabColumns.KANA);
+	public static final VocabComparator KANJI = new VocabComparator(VocabColumns.KANJI);
+	private static final Collator englishCollator = Collator.getInstance(Locale.ENGLISH);
+	private static final Collator japaneseCollator = Collator.getInstance(Locale.JAPANESE);
+	/**
+	 * The value compared, one of the {@link VocabColumns} fields.
+	 */
+	private final int field;
+
+	private VocabComparator(int field) {
+		this.field = field;
+	}
+
+	@Override
+	public int compare(VocabItem item1, VocabItem item2) {
+		int result;
+		if (field == VocabColumns.KANJI) {
+			// Kanji sort by reading, then by the kanji for the same reading
+			result = japaneseCollator.compare(item1.getKana(), item2.getKana());
+			if (result == 0) {
+				result = japaneseCollator.compare(item1.getKanji(), item2.getKanji());
+			}
+		}
+		else {
+			result = getCollator(field).compare(getValue(item1, field), getValue(item2, field));
+		}
+		// Keep the order stable for values the Collator sees as equal
+		return result != 0 ? result : getValue(item1, field).compareTo(getValue(item2, field));
+	}
+
+	/**
+	 * Sorts items in this order, the same as sorting them with
+	 * {@link #compare(VocabItem, VocabItem)} but making each item's keys
+	 * only once.
+	 *
+	 * @param items
+	 * @return a new list of the items, sorted.
+	 */
+	ArrayList<VocabItem> sort(Collection<VocabItem> items) {
+		Keyed[] keyed = new Keyed[items.size()];
+		int count = 0;
+		for (VocabItem item : items) {
+			keyed[count++] = new Keyed(item);
+		}
+		Arrays.sort(keyed);
+		ArrayList<VocabItem> sorted = new ArrayList<>(count);
+		for (Keyed k : keyed) {
+			sorted.add(k.item);
+		}
+		return sorted;
+	}
+
+	private static Collator getCollator(int field) {
+		return (field == VocabColumns.KANA || field == VocabColumns.KANJI)
+				? japaneseCollator : englishCollator;
+	}
+
+	private static String getValue(VocabItem item, int field) {
+		switch (field) {
+			case VocabColumns.ENGLISH:
+				return item.getEnglish();
+			case VocabColumns.ROMAJI:
+				return item.getRomaji();
+			case VocabColumns.KANA:
+				return item.getKana();
+			default:
+				return item.getKanji();
+		}
+	}
+
+	/**
+	 * An item with its keys for one sort.
+	 */
+	private final class Keyed implements Comparable<Keyed> {
+		final VocabItem item;
+		/**
+		 * The key of the value sorted by, the reading for kanji.
+		 */
+		final CollationKey key;
+		/**
+		 * The key of the kanji when sorting by kanji, otherwise null.
+		 */
+		final CollationKey kanjiKey;
+
+		Keyed(VocabItem item) {
+			this.item = item;
+			if (field == VocabColumns.KANJI) {
+				key = japaneseCollator.getCollationKey(item.getKana());
+				kanjiKey = japaneseCollator.getCollationKey(item.getKanji());
+			}
+			else {
+				key = getCollator(field).getCollationKey(getValue(item, field));
+				kanjiKey = null;
+			}
+		}
+
+		@Override
+		public int compareTo(Keyed other) {
+			int result = key.compareTo(other.key);
+			if (result == 0 && kanjiKey != null) {
+				result = kanjiKey.compareTo(other.kanjiKey);
+			}
+			return result != 0 ? result
+					: getValue(item, field).compareTo(getValue(other.item, field));
+		}
+	}
+}
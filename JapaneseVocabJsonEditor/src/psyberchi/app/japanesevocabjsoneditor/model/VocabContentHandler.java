@@ -0,0 +1,406 @@
+/*
+ *  VocabContentHandler.java
+ *
+ *  GNU GPL License.
+ */
+package psyberchi.app.japanesevocabjsoneditor.model;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.ParseException;
+
+/**
+ * A json-simple ContentHandler that builds a {@link VocabModel} directly from
+ * the parser callbacks, so the file is never held as a tree of JSONObject and
+ * JSONArray maps. It follows the same rules as
+ * {@link JsonVocabIO#readJsonFile(java.io.File)}: each key of the top level
+ * object is a category whose value is an array of vocabulary objects.
+ *
+ * One difference: when a category key appears more than once, the
+ * vocabulary of every array under it is kept in the one category, where
+ * {@link JsonVocabIO#readJsonFile(java.io.File)} only keeps the last array,
+ * as its JSONObject is a map. The parallel, lazy and cached readers merge
+ * the arrays the same way as this one.
+ *
+ * @author Kendall Conrad
+ */
+class VocabContentHandler implements ContentHandler {
+	private static final Logger logger = Logger.getLogger(VocabContentHandler.class.getCanonicalName());
+	/**
+	 * Nesting depth of the top level object.
+	 */
+	private static final int DEPTH_ROOT = 1;
+	/**
+	 * Nesting depth of a category array.
+	 */
+	private static final int DEPTH_CATEGORY = 2;
+	/**
+	 * Nesting depth of a vocabulary object.
+	 */
+	private static final int DEPTH_ITEM = 3;
+	/**
+	 * How many vocabulary items are read between progress reports.
+	 */
+	private static final int PROGRESS_INTERVAL = 1000;
+	/**
+	 * The model being filled in.
+	 */
+	private VocabModel model = new VocabModel();
+	/**
+	 * The current object/array nesting depth.
+	 */
+	private int depth = 0;
+	/**
+	 * When not -1, everything nested deeper than this depth is skipped.
+	 */
+	private int skipDepth = -1;
+	/**
+	 * The category currently being read.
+	 */
+	private String category = null;
+	/**
+	 * The key of the vocabulary property currently being read.
+	 */
+	private String field = null;
+	private Object english;
+	private Object romaji;
+	private Object kana;
+	private Object kanji;
+	private Object lesson;
+	private int catCount = 0;
+	private int vocabCount = 0;
+	/**
+	 * Whether reading was cancelled from {@link #reportProgress(int, int)}.
+	 */
+	private boolean cancelled = false;
+	/**
+	 * The vocabulary count at which progress is next reported.
+	 */
+	private int nextReport = PROGRESS_INTERVAL;
+	/**
+	 * Shares the Strings of the items read, null to keep them as parsed.
+	 */
+	private StringPool pool = new StringPool();
+
+	/**
+	 * Returns the model built from the parsed content.
+	 *
+	 * @return the VocabModel.
+	 */
+	public VocabModel getModel() {
+		return model;
+	}
+
+	/**
+	 * Returns the number of categories added to the model.
+	 *
+	 * @return
+	 */
+	public int getCategoryCount() {
+		return catCount;
+	}
+
+	/**
+	 * Returns the number of vocabulary items added to the model.
+	 *
+	 * @return
+	 */
+	public int getVocabCount() {
+		return vocabCount;
+	}
+
+	/**
+	 * Returns the pool the Strings of the items read are shared through.
+	 *
+	 * @return the pool, null if none.
+	 */
+	StringPool getStringPool() {
+		return pool;
+	}
+
+	/**
+	 * Sets the pool the Strings of the items read are shared through. A pool
+	 * can be shared by handlers used one after another for the same read.
+	 *
+	 * @param pool the pool, null to keep the Strings as parsed.
+	 */
+	void setStringPool(StringPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Returns whether reading was cancelled before the end of the content.
+	 *
+	 * @return
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Called every so many vocabulary items and once at the end of the
+	 * content. Subclasses can override it to report progress.
+	 *
+	 * @param categories the number of categories added so far.
+	 * @param items the number of vocabulary items added so far.
+	 * @return true to keep reading, false to stop.
+	 */
+	boolean reportProgress(int categories, int items) {
+		return true;
+	}
+
+	/**
+	 * Adds a category read from the content to the model. Subclasses can
+	 * override it to collect the content elsewhere.
+	 *
+	 * @param cat
+	 * @return true if a new category was added.
+	 */
+	boolean addCategory(String cat) {
+		return model.addCategory(cat);
+	}
+
+	/**
+	 * Adds a vocabulary item read from the content to the model.
+	 *
+	 * @param cat
+	 * @param item
+	 * @return true if the item was added.
+	 */
+	boolean addVocabItem(String cat, VocabItem item) {
+		return model.addVocabItem(cat, item);
+	}
+
+	@Override
+	public void startJSON() throws ParseException, IOException {
+		depth = 0;
+		skipDepth = -1;
+	}
+
+	@Override
+	public void endJSON() throws ParseException, IOException {
+		reportProgress(catCount, vocabCount);
+	}
+
+	@Override
+	public boolean startObject() throws ParseException, IOException {
+		depth++;
+		if (isSkipping()) {
+			return true;
+		}
+		switch (depth) {
+			case DEPTH_ROOT:
+				break;
+			case DEPTH_CATEGORY:
+				logger.log(Level.INFO, "Type not recognized: {0}", "JSONObject");
+				skip();
+				break;
+			case DEPTH_ITEM:
+				english = null;
+				romaji = null;
+				kana = null;
+				kanji = null;
+				lesson = null;
+				break;
+			default:
+				// Nested values inside of a vocabulary item are ignored
+				skip();
+				break;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean endObject() throws ParseException, IOException {
+		if (!isSkipping() && depth == DEPTH_ITEM) {
+			addReadVocabItem();
+			if (vocabCount >= nextReport) {
+				nextReport = vocabCount + PROGRESS_INTERVAL;
+				if (!reportProgress(catCount, vocabCount)) {
+					cancelled = true;
+					leave();
+					return false;
+				}
+			}
+		}
+		leave();
+		return true;
+	}
+
+	@Override
+	public boolean startObjectEntry(String key) throws ParseException, IOException {
+		if (isSkipping()) {
+			return true;
+		}
+		if (depth == DEPTH_ROOT) {
+			category = key;
+			if (addCategory(category)) {
+				catCount++;
+			}
+			else {
+				logger.log(Level.WARNING, "Category {0} appears more than once, merging its vocabulary",
+						category);
+			}
+		}
+		else if (depth == DEPTH_ITEM) {
+			field = key;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean endObjectEntry() throws ParseException, IOException {
+		field = null;
+		return true;
+	}
+
+	@Override
+	public boolean startArray() throws ParseException, IOException {
+		depth++;
+		if (isSkipping()) {
+			return true;
+		}
+		if (depth == DEPTH_ROOT) {
+			throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN, "[");
+		}
+		else if (depth != DEPTH_CATEGORY) {
+			if (depth == DEPTH_ITEM) {
+				logger.log(Level.SEVERE, "VocabItem had problems: {0}",
+						"JSONArray cannot be a vocabulary item");
+			}
+			skip();
+		}
+		return true;
+	}
+
+	@Override
+	public boolean endArray() throws ParseException, IOException {
+		leave();
+		return true;
+	}
+
+	@Override
+	public boolean primitive(Object value) throws ParseException, IOException {
+		if (isSkipping()) {
+			return true;
+		}
+		switch (depth) {
+			case DEPTH_ROOT:
+				logger.log(Level.INFO, "Type not recognized: {0}",
+						value == null ? "null" : value.getClass().toString());
+				break;
+			case DEPTH_CATEGORY:
+				logger.log(Level.SEVERE, "VocabItem had problems: {0}",
+						"Not a vocabulary object: " + value);
+				break;
+			case DEPTH_ITEM:
+				setField(value);
+				break;
+			default:
+				break;
+		}
+		return true;
+	}
+
+	/**
+	 * Creates a VocabItem from the collected fields and adds it to the current
+	 * category.
+	 */
+	private void addReadVocabItem() {
+		// Make sure it's valid before trying to add it
+		if (english == null || romaji == null || kana == null || kanji == null) {
+			if (logger.isLoggable(Level.WARNING)) {
+				logger.log(Level.WARNING, "Invalid VocabItem found. Skipping it: {0}",
+						String.format("{\"en\":%s, \"ro\":%s, \"kn\":%s, \"kj\":%s, \"ln\":%s}",
+								english, romaji, kana, kanji, lesson));
+			}
+			return;
+		}
+		try {
+			int les = 0;
+			// Parse it out if it exists
+			if (lesson != null) {
+				les = Integer.parseInt(lesson.toString(), 10);
+			}
+			String en = english.toString();
+			// Adjust category marker
+			if (en.equals("_")) {
+				en = "#" + category;
+			}
+			VocabItem item = new VocabItem(en, romaji.toString(),
+					kana.toString(), kanji.toString(), les);
+			if (pool != null) {
+				item.intern(pool);
+			}
+			if (addVocabItem(category, item)) {
+				vocabCount++;
+				if (logger.isLoggable(Level.FINE)) {
+					String s = String.format("%s: %s, %s, %s, %s, %d",
+							category, item.getEnglish(), item.getRomaji(),
+							item.getKana(), item.getKanji(), item.getLesson());
+					logger.log(Level.FINE, "Added new vocab: {0}", s);
+				}
+			}
+		}
+		catch (Exception ex) {
+			logger.log(Level.SEVERE, "VocabItem had problems: {0}",
+					ex.getLocalizedMessage());
+		}
+	}
+
+	/**
+	 * Stores a primitive value for the vocabulary property being read.
+	 *
+	 * @param value
+	 */
+	private void setField(Object value) {
+		if (field == null) {
+			return;
+		}
+		switch (field) {
+			case "en":
+				english = value;
+				break;
+			case "ro":
+				romaji = value;
+				break;
+			case "kn":
+				kana = value;
+				break;
+			case "kj":
+				kanji = value;
+				break;
+			case "ln":
+				lesson = value;
+				break;
+		}
+	}
+
+	/**
+	 * Returns whether the current content is being skipped.
+	 *
+	 * @return
+	 */
+	private boolean isSkipping() {
+		return skipDepth != -1 && depth > skipDepth;
+	}
+
+	/**
+	 * Skips everything inside of the object or array just started.
+	 */
+	private void skip() {
+		skipDepth = depth - 1;
+	}
+
+	/**
+	 * Leaves the current object or array, ending any skip that started there.
+	 */
+	private void leave() {
+		depth--;
+		if (skipDepth != -1 && depth <= skipDepth) {
+			skipDepth = -1;
+		}
+	}
+}
@@ -0,0 +1,432 @@
+/*
+ *  VocabFilter.java
+ *
+ *  GNU GPL License.
+ */
+package psyberchi.app.japanesevocabjsoneditor.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Narrows a list of vocabulary to the items with the query in any of their
+ * four fields, for filtering a list as the user types. The fields of every
+ * item of the list are folded to lower case and hiragana once and joined into
+ * a single text, so a query is one pass over that text. When a query only adds
+ * to the last one, just the items that matched the last query are checked
+ * again.
+ *
+ * A new query on a long list of a model whose text is indexed asks the
+ * model's index instead, so only the matching items are looked at.
+ *
+ * A query starting with {@value #READING_MARK} instead keeps the items with a
+ * romaji or kana reading starting with the rest of the query, for jumping to
+ * a word by how it is read. A query starting with {@value #FUZZY_MARK} keeps
+ * the items with romaji spelled like the rest of the query, allowing for the
+ * different ways of writing romaji and a typo or two.
+ *
+ * The text is kept for the last list filtered and is rebuilt when given a
+ * different list, so a list must not be changed while it is being filtered.
+ * The sorted lists of a {@link VocabModel} are replaced rather than changed,
+ * which makes them a good fit.
+ *
+ * @author Kendall Conrad
+ */
+public class VocabFilter {
+	/**
+	 * Separates the items in the text, never part of a folded query.
+	 */
+	private static final char SEPARATOR = '\u0000';
+	/**
+	 * Starts a query for readings starting with the rest of it.
+	 */
+	public static final String READING_MARK = "^";
+	/**
+	 * Starts a query for romaji spelled like the rest of it.
+	 */
+	public static final String FUZZY_MARK = "~";
+	/**
+	 * The most edits a fuzzy query allows, fewer for short queries.
+	 */
+	private static final int FUZZY_DISTANCE = 2;
+	/**
+	 * Lists at least this long are searched with the model's text index when
+	 * it has one.
+	 */
+	private static final int INDEX_MIN_SIZE = 10000;
+	/**
+	 * The most items of the last result checked again when refining a query
+	 * that the index could answer instead.
+	 */
+	private static final int REFINE_MAX = 4096;
+	/**
+	 * The list the text was built for.
+	 */
+	private List<VocabItem> source = null;
+	/**
+	 * The folded fields of all of the items, each field followed by a
+	 * separator.
+	 */
+	private String text = "";
+	/**
+	 * Where each item starts in the text, with the end of the text last.
+	 */
+	private int[] starts = new int[]{0};
+	/**
+	 * Where each item is in the list, made when first searched with an index.
+	 */
+	private IdentityHashMap<VocabItem, Integer> positions = null;
+	/**
+	 * The last query, whether it was for readings, and the indexes of the
+	 * items that matched it.
+	 */
+	private String lastQuery = null;
+	private boolean lastReading = false;
+	private int[] matches = new int[0];
+	private int matchCount = 0;
+
+	/**
+	 * Returns the items of the list that contain the query in any field,
+	 * ignoring case and whether kana is hiragana or katakana. The items stay
+	 * in the order of the list.
+	 *
+	 * @param items the list to filter.
+	 * @param query the text to look for.
+	 * @return the matching items, the list itself if the query is empty.
+	 */
+	public List<VocabItem> filter(List<VocabItem> items, String query) {
+		return filter(items, query, null);
+	}
+
+	/**
+	 * Returns the items of the list that contain the query in any field, like
+	 * {@link #filter(List, String)}, using the text and reading indexes of the
+	 * model the items belong to if it has them.
+	 *
+	 * @param items the list to filter.
+	 * @param query the text to look for.
+	 * @param model the model of the items, may be null.
+	 * @return the matching items, the list itself if the query is empty.
+	 */
+	public List<VocabItem> filter(List<VocabItem> items, String query, VocabModel model) {
+		String q = query == null ? "" : query.trim();
+		if (q.startsWith(FUZZY_MARK)) {
+			return filterFuzzy(items, q.substring(FUZZY_MARK.length()), model);
+		}
+		boolean reading = q.startsWith(READING_MARK);
+		if (reading) {
+			q = q.substring(READING_MARK.length()).trim();
+		}
+		q = fold(q);
+		if (items == null || q.isEmpty()) {
+			return items;
+		}
+		if (items != source || starts.length != items.size() + 1) {
+			index(items);
+		}
+		boolean refining = lastQuery != null && lastReading == reading
+				&& (reading ? q.startsWith(lastQuery) : q.contains(lastQuery));
+		if (reading) {
+			if (refining) {
+				refineReading(q);
+			}
+			else if (model != null && model.hasReadingIndex() && items.size() >= INDEX_MIN_SIZE) {
+				keep(model.findVocabItemsByReading(q, Integer.MAX_VALUE));
+			}
+			else {
+				searchReading(q);
+			}
+		}
+		else {
+			// A single ASCII letter is in too many items for the index to help
+			boolean useIndex = model != null && model.hasTextIndex()
+					&& items.size() >= INDEX_MIN_SIZE && (q.length() > 1 || q.charAt(0) >= 0x80);
+			if (refining && (!useIndex || matchCount <= REFINE_MAX)) {
+				refine(q);
+			}
+			else if (useIndex) {
+				keep(model.findVocabItems(q));
+			}
+			else {
+				search(q);
+			}
+		}
+		lastQuery = q;
+		lastReading = reading;
+		List<VocabItem> result = new ArrayList<>(matchCount);
+		for (int a = 0; a < matchCount; a++) {
+			result.add(items.get(matches[a]));
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the items of the list with romaji within a few edits of the
+	 * query once both are normalized, in the order of the list. A fuzzy
+	 * result is not refined by the next query, as adding letters can bring
+	 * items closer as well as take them further away.
+	 *
+	 * @param items the list to filter.
+	 * @param query the romaji to look for.
+	 * @param model the model of the items, may be null.
+	 * @return the matching items, the list itself if the query is empty.
+	 */
+	private List<VocabItem> filterFuzzy(List<VocabItem> items, String query, VocabModel model) {
+		String key = RomajiIndex.normalize(query);
+		if (items == null || key.isEmpty()) {
+			return items;
+		}
+		if (items != source || starts.length != items.size() + 1) {
+			index(items);
+		}
+		int maxDistance = RomajiIndex.allowedDistance(key.length(), FUZZY_DISTANCE);
+		if (model != null && model.hasRomajiIndex() && items.size() >= INDEX_MIN_SIZE) {
+			keep(model.findVocabItemsByRomaji(query, maxDistance));
+		}
+		else {
+			matchCount = 0;
+			for (int a = 0; a < items.size(); a++) {
+				String romaji = items.get(a).getRomaji();
+				if (romaji != null && RomajiIndex.distance(key, RomajiIndex.normalize(romaji)) <= maxDistance) {
+					matches[matchCount++] = a;
+				}
+			}
+		}
+		lastQuery = null;
+		List<VocabItem> result = new ArrayList<>(matchCount);
+		for (int a = 0; a < matchCount; a++) {
+			result.add(items.get(matches[a]));
+		}
+		return result;
+	}
+
+	/**
+	 * Drops the text of the last list, freeing its memory.
+	 */
+	public void clear() {
+		source = null;
+		text = "";
+		starts = new int[]{0};
+		positions = null;
+		lastQuery = null;
+		lastReading = false;
+		matches = new int[0];
+		matchCount = 0;
+	}
+
+	/**
+	 * Folds a string for matching: lower case, and katakana as hiragana.
+	 *
+	 * @param s
+	 * @return
+	 */
+	static String fold(String s) {
+		StringBuilder sb = null;
+		for (int a = 0; a < s.length(); a++) {
+			char c = s.charAt(a);
+			char f = fold(c);
+			if (f != c && sb == null) {
+				sb = new StringBuilder(s.length());
+				sb.append(s, 0, a);
+			}
+			if (sb != null) {
+				sb.append(f);
+			}
+		}
+		return sb == null ? s : sb.toString();
+	}
+
+	/**
+	 * Folds a character for matching, see {@link #fold(String)}.
+	 *
+	 * @param c
+	 * @return
+	 */
+	static char fold(char c) {
+		if (c >= '\u30A1' && c <= '\u30F6') {
+			// Katakana to the hiragana of the same sound
+			return (char) (c - 0x60);
+		}
+		if (c < 0x80) {
+			return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+		}
+		return Character.toLowerCase(c);
+	}
+
+	/**
+	 * Builds the text for a list.
+	 *
+	 * @param items
+	 */
+	private void index(List<VocabItem> items) {
+		StringBuilder sb = new StringBuilder(items.size() * 32);
+		starts = new int[items.size() + 1];
+		for (int a = 0; a < items.size(); a++) {
+			VocabItem item = items.get(a);
+			starts[a] = sb.length();
+			appendFolded(sb, item.getEnglish());
+			appendFolded(sb, item.getRomaji());
+			appendFolded(sb, item.getKana());
+			appendFolded(sb, item.getKanji());
+		}
+		starts[items.size()] = sb.length();
+		text = sb.toString();
+		source = items;
+		positions = null;
+		lastQuery = null;
+		matches = new int[items.size()];
+		matchCount = 0;
+	}
+
+	private static void appendFolded(StringBuilder sb, String s) {
+		if (s != null) {
+			for (int a = 0; a < s.length(); a++) {
+				sb.append(fold(s.charAt(a)));
+			}
+		}
+		sb.append(SEPARATOR);
+	}
+
+	/**
+	 * Finds the items with the query by searching the whole text.
+	 *
+	 * @param q the folded query.
+	 */
+	private void search(String q) {
+		matchCount = 0;
+		int item = 0;
+		int pos = text.indexOf(q);
+		while (pos >= 0) {
+			item = itemAt(pos, item);
+			matches[matchCount++] = item;
+			// Carry on from the next item
+			pos = text.indexOf(q, starts[item + 1]);
+		}
+	}
+
+	/**
+	 * Makes the items of the list found through one of the model's indexes
+	 * the result, in the order of the list.
+	 *
+	 * @param found the items found, which may include items not in the list.
+	 */
+	private void keep(List<VocabItem> found) {
+		if (positions == null) {
+			positions = new IdentityHashMap<>(source.size());
+			for (int a = 0; a < source.size(); a++) {
+				positions.put(source.get(a), a);
+			}
+		}
+		matchCount = 0;
+		for (VocabItem item : found) {
+			Integer pos = positions.get(item);
+			if (pos != null) {
+				matches[matchCount++] = pos;
+			}
+		}
+		Arrays.sort(matches, 0, matchCount);
+	}
+
+	/**
+	 * Keeps only the items of the last result that still have the query.
+	 *
+	 * @param q the folded query.
+	 */
+	private void refine(String q) {
+		int count = 0;
+		for (int a = 0; a < matchCount; a++) {
+			int item = matches[a];
+			if (contains(starts[item], starts[item + 1], q)) {
+				matches[count++] = item;
+			}
+		}
+		matchCount = count;
+	}
+
+	/**
+	 * Finds the items with a reading starting with the query.
+	 *
+	 * @param q the folded query.
+	 */
+	private void searchReading(String q) {
+		matchCount = 0;
+		for (int item = 0; item < source.size(); item++) {
+			if (readingStartsWith(item, q)) {
+				matches[matchCount++] = item;
+			}
+		}
+	}
+
+	/**
+	 * Keeps only the items of the last result that still have a reading
+	 * starting with the query.
+	 *
+	 * @param q the folded query.
+	 */
+	private void refineReading(String q) {
+		int count = 0;
+		for (int a = 0; a < matchCount; a++) {
+			if (readingStartsWith(matches[a], q)) {
+				matches[count++] = matches[a];
+			}
+		}
+		matchCount = count;
+	}
+
+	/**
+	 * Returns whether the romaji or kana of an item starts with the query.
+	 *
+	 * @param item the index of the item.
+	 * @param q the folded query, which can't run past the end of a field as it
+	 * has no separator.
+	 * @return
+	 */
+	private boolean readingStartsWith(int item, String q) {
+		int romaji = text.indexOf(SEPARATOR, starts[item]) + 1;
+		int kana = text.indexOf(SEPARATOR, romaji) + 1;
+		return text.startsWith(q, romaji) || text.startsWith(q, kana);
+	}
+
+	/**
+	 * Returns whether the query is in the given range of the text.
+	 *
+	 * @param start
+	 * @param end
+	 * @param q
+	 * @return
+	 */
+	private boolean contains(int start, int end, String q) {
+		char first = q.charAt(0);
+		int last = end - q.length();
+		for (int p = start; p <= last; p++) {
+			if (text.charAt(p) == first && text.regionMatches(p, q, 0, q.length())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the item that a position of the text belongs to.
+	 *
+	 * @param pos a position in the text.
+	 * @param from an item at or before the one wanted.
+	 * @return
+	 */
+	private int itemAt(int pos, int from) {
+		int low = from;
+		int high = starts.length - 2;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (starts[mid] <= pos) {
+				low = mid;
+			}
+			else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+}
@@ -5,18 +5,36 @@
  */
 package psyberchi.app.japanesevocabjsoneditor.model;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Objects;
 import org.json.simple.JSONAware;
-import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
 
 /**
  * @author Kendall Conrad
  */
-public class VocabItem implements JSONAware {
+public class VocabItem implements JSONAware, JSONStreamAware {
 	private int lesson;
 	private String english;
 	private String romaji;
 	private String kana;
 	private String kanji;
+	/**
+	 * The category the item has been added to, if any. Used to keep the
+	 * model's indexes in step with changes made through the setters.
+	 */
+	private VocabCategory category = null;
+	/**
+	 * The slot of the item in its category.
+	 */
+	private int position = -1;
+	/**
+	 * The columns holding the values of the item, null if the item holds
+	 * them itself.
+	 */
+	private VocabColumns columns = null;
+	private int row;
 
 	/**
 	 * Constructor for creating a new vocabulary item.
@@ -51,6 +69,167 @@ public class VocabItem implements JSONAware {
 		lesson = les;
 	}
 
+	/**
+	 * Replaces the values of the item with equal ones from a pool, so items
+	 * read from the same file share their Strings. Only for items not yet in
+	 * a category, as nothing is told of the change.
+	 *
+	 * @param pool
+	 */
+	void intern(StringPool pool) {
+		if (columns != null) {
+			return;
+		}
+		english = pool.intern(english);
+		romaji = pool.intern(romaji);
+		kana = pool.intern(kana);
+		kanji = pool.intern(kanji);
+	}
+
+	/**
+	 * Returns a new VocabItem with the same values as this one that does not
+	 * belong to any category.
+	 *
+	 * @return a copy of the item.
+	 */
+	public VocabItem copy() {
+		VocabItem copy = new VocabItem(english, romaji, kana, kanji, lesson);
+		// Columns never change, so the copy can share the row
+		copy.columns = columns;
+		copy.row = row;
+		return copy;
+	}
+
+	/**
+	 * Makes the item read its values from a row of columns, dropping its own
+	 * copies. The row must hold the same values as the item.
+	 *
+	 * @param columns
+	 * @param row
+	 */
+	void attach(VocabColumns columns, int row) {
+		this.columns = columns;
+		this.row = row;
+		english = null;
+		romaji = null;
+		kana = null;
+		kanji = null;
+	}
+
+	/**
+	 * Takes the values of the item out of its columns row, if it has one, so
+	 * they can be changed.
+	 */
+	void detach() {
+		if (columns == null) {
+			return;
+		}
+		english = columns.get(row, VocabColumns.ENGLISH);
+		romaji = columns.get(row, VocabColumns.ROMAJI);
+		kana = columns.get(row, VocabColumns.KANA);
+		kanji = columns.get(row, VocabColumns.KANJI);
+		lesson = columns.getLesson(row);
+		columns = null;
+	}
+
+	/**
+	 * Returns whether the values of the item are kept in columns.
+	 *
+	 * @return
+	 */
+	boolean isPacked() {
+		return columns != null;
+	}
+
+	/**
+	 * Vocabulary items are equal when their English, romaji, kana, kanji and
+	 * lesson values are all equal.
+	 *
+	 * @param obj
+	 * @return
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof VocabItem)) {
+			return false;
+		}
+		VocabItem other = (VocabItem) obj;
+		if (getLesson() != other.getLesson()) {
+			return false;
+		}
+		for (int f = VocabColumns.ENGLISH; f <= VocabColumns.KANJI; f++) {
+			if (!fieldEquals(other, f)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Hashes the values the same way as {@link Objects#hash(Object...)} of
+	 * the English, romaji, kana, kanji and lesson, without creating Strings
+	 * for packed items.
+	 *
+	 * @return
+	 */
+	@Override
+	public int hashCode() {
+		int h = 1;
+		for (int f = VocabColumns.ENGLISH; f <= VocabColumns.KANJI; f++) {
+			h = 31 * h + fieldHash(f);
+		}
+		return 31 * h + getLesson();
+	}
+
+	/**
+	 * Returns the value of a field of the item held by the item itself.
+	 *
+	 * @param field
+	 * @return
+	 */
+	private String ownField(int field) {
+		switch (field) {
+			case VocabColumns.ENGLISH:
+				return english;
+			case VocabColumns.ROMAJI:
+				return romaji;
+			case VocabColumns.KANA:
+				return kana;
+			default:
+				return kanji;
+		}
+	}
+
+	private int fieldHash(int field) {
+		if (columns != null) {
+			return columns.hash(row, field);
+		}
+		return Objects.hashCode(ownField(field));
+	}
+
+	/**
+	 * Compares a field of the item with the same field of another.
+	 *
+	 * @param other
+	 * @param field
+	 * @return
+	 */
+	private boolean fieldEquals(VocabItem other, int field) {
+		if (columns != null && other.columns != null) {
+			return columns.equals(row, field, other.columns, other.row);
+		}
+		if (columns != null) {
+			return columns.equals(row, field, other.ownField(field));
+		}
+		if (other.columns != null) {
+			return other.columns.equals(other.row, field, ownField(field));
+		}
+		return Objects.equals(ownField(field), other.ownField(field));
+	}
+
 	/**
 	 * Returns a JSON formatted String representing the vocabulary item.
 	 *
@@ -58,84 +237,201 @@ public class VocabItem implements JSONAware {
 	 */
 	@Override
 	public String toJSONString() {
-		String ss = String.format("{\"en\":\"%s\","
-				+ " \"ro\":\"%s\", \"kn\":\"%s\","
-				+ " \"kj\":\"%s\", \"ln\":%d}",
-				JSONObject.escape(getEnglish()),
-				JSONObject.escape(getRomaji()),
-				JSONObject.escape(getKana()),
-				JSONObject.escape(getKanji()),
-				getLesson());
-		return ss;
+		StringBuilder json = new StringBuilder(64);
+		try {
+			appendJSON(json);
+		}
+		catch (IOException ex) {
+			// A StringBuilder does not throw
+		}
+		return json.toString();
+	}
+
+	/**
+	 * Writes the JSON form of the vocabulary item to the given Writer. The
+	 * output is the same as {@link #toJSONString()}.
+	 *
+	 * @param out the Writer to write to.
+	 * @throws IOException
+	 */
+	@Override
+	public void writeJSONString(Writer out) throws IOException {
+		appendJSON(out);
+	}
+
+	/**
+	 * Appends the JSON form of the vocabulary item, the same as
+	 * {@link #toJSONString()}, escaping the values straight into the output
+	 * rather than building escaped copies of them.
+	 *
+	 * @param out the Writer or StringBuilder to append to.
+	 * @throws IOException
+	 */
+	public void appendJSON(Appendable out) throws IOException {
+		out.append("{\"en\":\"");
+		JsonText.appendEscaped(out, getEnglish());
+		out.append("\", \"ro\":\"");
+		JsonText.appendEscaped(out, getRomaji());
+		out.append("\", \"kn\":\"");
+		JsonText.appendEscaped(out, getKana());
+		out.append("\", \"kj\":\"");
+		JsonText.appendEscaped(out, getKanji());
+		out.append("\", \"ln\":");
+		JsonText.appendInt(out, getLesson());
+		out.append('}');
 	}
 
 	/**
 	 * @return the english
 	 */
 	public String getEnglish() {
-		return english;
+		return columns == null ? english : columns.get(row, VocabColumns.ENGLISH);
 	}
 
 	/**
 	 * @param english the english to set
 	 */
 	public void setEnglish(String english) {
+		if (Objects.equals(english, getEnglish())) {
+			return;
+		}
+		fieldChanging();
+		detach();
 		this.english = english;
+		fieldChanged();
 	}
 
 	/**
 	 * @return the romaji
 	 */
 	public String getRomaji() {
-		return romaji;
+		return columns == null ? romaji : columns.get(row, VocabColumns.ROMAJI);
 	}
 
 	/**
 	 * @param romaji the romaji to set
 	 */
 	public void setRomaji(String romaji) {
+		if (Objects.equals(romaji, getRomaji())) {
+			return;
+		}
+		fieldChanging();
+		detach();
 		this.romaji = romaji;
+		fieldChanged();
 	}
 
 	/**
 	 * @return the kana
 	 */
 	public String getKana() {
-		return kana;
+		return columns == null ? kana : columns.get(row, VocabColumns.KANA);
 	}
 
 	/**
 	 * @param kana the kana to set
 	 */
 	public void setKana(String kana) {
+		if (Objects.equals(kana, getKana())) {
+			return;
+		}
+		fieldChanging();
+		detach();
 		this.kana = kana;
+		fieldChanged();
 	}
 
 	/**
 	 * @return the kanji
 	 */
 	public String getKanji() {
-		return kanji;
+		return columns == null ? kanji : columns.get(row, VocabColumns.KANJI);
 	}
 
 	/**
 	 * @param kanji the kanji to set
 	 */
 	public void setKanji(String kanji) {
+		if (Objects.equals(kanji, getKanji())) {
+			return;
+		}
+		fieldChanging();
+		detach();
 		this.kanji = kanji;
+		fieldChanged();
 	}
 
 	/**
 	 * @return the lesson
 	 */
 	public int getLesson() {
-		return lesson;
+		return columns == null ? lesson : columns.getLesson(row);
 	}
 
 	/**
 	 * @param lesson the lesson to set
 	 */
 	public void setLesson(int lesson) {
+		if (lesson == getLesson()) {
+			return;
+		}
+		fieldChanging();
+		detach();
 		this.lesson = lesson;
+		fieldChanged();
+	}
+
+	/**
+	 * Returns the category the item belongs to.
+	 *
+	 * @return the category, null if not added to one.
+	 */
+	VocabCategory getCategory() {
+		return category;
+	}
+
+	/**
+	 * Sets the category the item belongs to.
+	 *
+	 * @param category the category, null when removed from one.
+	 */
+	void setCategory(VocabCategory category) {
+		this.category = category;
+	}
+
+	/**
+	 * Returns the slot of the item in its category.
+	 *
+	 * @return
+	 */
+	int getPosition() {
+		return position;
+	}
+
+	/**
+	 * Sets the slot of the item in its category.
+	 *
+	 * @param position
+	 */
+	void setPosition(int position) {
+		this.position = position;
+	}
+
+	/**
+	 * Lets the owning category know a value is about to change.
+	 */
+	private void fieldChanging() {
+		if (category != null) {
+			category.itemChanging(this);
+		}
+	}
+
+	/**
+	 * Lets the owning category know a value has changed.
+	 */
+	private void fieldChanged() {
+		if (category != null) {
+			category.itemChanged(this);
+		}
 	}
 }
@@ -0,0 +1,502 @@
+/*
+ *  VocabJournal.java
+ *
+ *  GNU GPL License.
+ */
+package psyberchi.app.japanesevocabjsoneditor.model;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.json.simple.JSONArray;
+import org.json.simple.parser.JSONParser;
+
+/**
+ * An append-only log of the changes made to a {@link VocabModel} since its
+ * file was last saved, kept next to the file so the changes can be recovered
+ * after a crash. Each change is one line holding a JSON array:
+ * <pre>
+ * ["v", length, lastModified]        the version of the file, always first
+ * ["c", category]                    category added
+ * ["r", oldName, newName]            category renamed
+ * ["a", category, en, ro, kn, kj, ln] vocabulary added
+ * ["d", category, en, ro, kn, kj, ln] vocabulary removed
+ * ["e", category, en, ro, kn, kj, ln, en, ro, kn, kj, ln] vocabulary edited
+ * </pre>
+ * A move between categories is a remove followed by an add. Records are
+ * written as they happen and forced to disk in batches, shortly after the
+ * first record of a batch.
+ *
+ * The first record holds the length and modification time of the
+ * vocabulary file the changes apply to. A journal whose file has since
+ * changed, such as after a crash between saving the file and compacting the
+ * journal or an edit made outside the editor, is thrown away instead of
+ * being replayed.
+ *
+ * @author Kendall Conrad
+ */
+public class VocabJournal implements PropertyChangeListener {
+	private static final Logger logger = Logger.getLogger(VocabJournal.class.getCanonicalName());
+	/**
+	 * How long after a record is written it is forced to disk, in ms.
+	 */
+	private static final long SYNC_DELAY = 1000;
+	/**
+	 * Forces journals to disk for all open journals.
+	 */
+	private static Timer syncTimer = null;
+	/**
+	 * The journal file.
+	 */
+	private final File file;
+	/**
+	 * The vocabulary file the changes are made to.
+	 */
+	private final File vocabFile;
+	private FileChannel channel;
+	/**
+	 * The number of bytes in the journal.
+	 */
+	private long position;
+	/**
+	 * The pending sync, null if everything written has been synced.
+	 */
+	private TimerTask syncTask = null;
+
+	/**
+	 * Opens a journal for appending, creating it if needed.
+	 *
+	 * @param file the journal file.
+	 * @param vocabFile the vocabulary file the changes are made to.
+	 * @param truncate whether to drop any records already in it.
+	 * @throws IOException
+	 */
+	public VocabJournal(File file, File vocabFile, boolean truncate) throws IOException {
+		this.file = file.getAbsoluteFile();
+		this.vocabFile = vocabFile.getAbsoluteFile();
+		open(truncate);
+	}
+
+	/**
+	 * Returns the journal file used for a vocabulary file.
+	 *
+	 * @param file
+	 * @return
+	 */
+	public static File getJournalFile(File file) {
+		File abs = file.getAbsoluteFile();
+		return new File(abs.getParentFile(), abs.getName() + ".journal");
+	}
+
+	/**
+	 * @return the journal file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Returns the current end of the journal. Records written after this
+	 * point are kept by {@link #compact(long)}.
+	 *
+	 * @return
+	 */
+	public synchronized long getPosition() {
+		return position;
+	}
+
+	/**
+	 * Drops the records before the given position once they are in the saved
+	 * file. Records written since are kept, after a new version record for
+	 * the saved file.
+	 *
+	 * @param mark a position from {@link #getPosition()} taken before the
+	 * saved snapshot of the model.
+	 * @throws IOException
+	 */
+	public synchronized void compact(long mark) throws IOException {
+		if (channel == null) {
+			return;
+		}
+		ByteBuffer header = StandardCharsets.UTF_8.encode(versionRecord() + "\n");
+		if (mark >= position) {
+			channel.truncate(0);
+			position = 0;
+			channel.position(0);
+			while (header.hasRemaining()) {
+				position += channel.write(header);
+			}
+			channel.force(true);
+			return;
+		}
+		// Copy the newer records to a new journal and put it in place, the
+		// same way a saved file replaces the old one
+		File temp = File.createTempFile("." + file.getName() + ".", ".tmp", file.getParentFile());
+		try {
+			try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+				while (header.hasRemaining()) {
+					out.write(header);
+				}
+				long done = 0;
+				while (done < position - mark) {
+					done += channel.transferTo(mark + done, position - mark - done, out);
+				}
+				out.force(true);
+			}
+			closeChannel();
+			JsonVocabIO.replaceFile(temp, file, false);
+		}
+		catch (IOException ex) {
+			JsonVocabIO.deleteTempFile(temp);
+			throw ex;
+		}
+		finally {
+			if (channel == null) {
+				open(false);
+			}
+		}
+	}
+
+	/**
+	 * Forces the records written so far to disk and stops recording.
+	 */
+	public synchronized void close() {
+		if (syncTask != null) {
+			syncTask.cancel();
+			syncTask = null;
+		}
+		try {
+			if (channel != null) {
+				channel.force(false);
+			}
+		}
+		catch (IOException ex) {
+			logger.log(Level.WARNING, "Could not sync journal: {0}", ex.getLocalizedMessage());
+		}
+		closeChannel();
+	}
+
+	/**
+	 * Stops recording and removes the journal, for when its changes are no
+	 * longer wanted.
+	 */
+	public synchronized void delete() {
+		close();
+		if (file.exists() && !file.delete()) {
+			logger.log(Level.WARNING, "Could not remove journal ''{0}''", file);
+		}
+	}
+
+	/**
+	 * Records a change from the model.
+	 *
+	 * @param pce
+	 */
+	@Override
+	public void propertyChange(PropertyChangeEvent pce) {
+		if (!(pce instanceof VocabChangeEvent)) {
+			return;
+		}
+		VocabChangeEvent evt = (VocabChangeEvent) pce;
+		List<Object> record = new ArrayList<>();
+		switch (evt.getPropertyName()) {
+			case VocabModel.PROP_CATEGORY_ADDED:
+				record.add("c");
+				record.add(evt.getCategory());
+				break;
+			case VocabModel.PROP_CATEGORY_RENAMED:
+				record.add("r");
+				record.add(evt.getOldValue());
+				record.add(evt.getNewValue());
+				break;
+			case VocabModel.PROP_VOCAB_ADDED:
+				record.add("a");
+				record.add(evt.getCategory());
+				addItem(record, (VocabItem) evt.getNewValue());
+				break;
+			case VocabModel.PROP_VOCAB_REMOVED:
+				record.add("d");
+				record.add(evt.getCategory());
+				addItem(record, (VocabItem) evt.getOldValue());
+				break;
+			case VocabModel.PROP_VOCAB_CHANGED:
+				record.add("e");
+				record.add(evt.getCategory());
+				addItem(record, (VocabItem) evt.getOldValue());
+				addItem(record, (VocabItem) evt.getNewValue());
+				break;
+			default:
+				return;
+		}
+		append(JSONArray.toJSONString(record));
+	}
+
+	/**
+	 * Applies the changes recorded in a journal file to a model. Reading
+	 * stops at the first record that can't be read, such as one cut short by
+	 * a crash, and the journal is cut off there so new records follow the
+	 * good ones. A journal written for another version of the vocabulary
+	 * file is removed without applying anything.
+	 *
+	 * @param journalFile the journal file.
+	 * @param vocabFile the vocabulary file the model was read from.
+	 * @param model the model read from the vocabulary file.
+	 * @return the number of records applied.
+	 * @throws IOException
+	 */
+	public static int replay(File journalFile, File vocabFile, VocabModel model) throws IOException {
+		if (!journalFile.isFile()) {
+			return 0;
+		}
+		VocabSource source = VocabSource.of(vocabFile);
+		boolean versionChecked = false;
+		int count = 0;
+		JSONParser parser = new JSONParser();
+		byte[] bytes = Files.readAllBytes(journalFile.toPath());
+		int start = 0;
+		while (start < bytes.length) {
+			int end = start;
+			while (end < bytes.length && bytes[end] != '\n') {
+				end++;
+			}
+			String line = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+			try {
+				if (end == bytes.length) {
+					throw new IOException("Record not finished");
+				}
+				if (!line.isEmpty()) {
+					List<?> record = (List<?>) parser.parse(line);
+					if (!versionChecked) {
+						if (!isVersion(record, source)) {
+							logger.log(Level.WARNING,
+									"Journal ''{0}'' is for another version of the file, not replayed",
+									journalFile);
+							Files.delete(journalFile.toPath());
+							return 0;
+						}
+						versionChecked = true;
+					}
+					else {
+						apply(record, model);
+						count++;
+					}
+				}
+			}
+			catch (Exception ex) {
+				logger.log(Level.WARNING, "Stopped replaying journal at bad record: {0}", line);
+				try (FileChannel channel = FileChannel.open(journalFile.toPath(),
+						StandardOpenOption.WRITE)) {
+					channel.truncate(start);
+				}
+				break;
+			}
+			start = end + 1;
+		}
+		logger.log(Level.INFO, "Replayed {0} journal records from ''{1}''",
+				new Object[]{count, journalFile});
+		return count;
+	}
+
+	/**
+	 * Returns whether a record is the version record of the given file.
+	 *
+	 * @param record
+	 * @param source
+	 * @return
+	 */
+	private static boolean isVersion(List<?> record, VocabSource source) {
+		return record.size() == 3 && "v".equals(record.get(0))
+				&& ((Number) record.get(1)).longValue() == source.getLength()
+				&& ((Number) record.get(2)).longValue() == source.getLastModified();
+	}
+
+	/**
+	 * Returns the version record of the vocabulary file as it is now.
+	 *
+	 * @return
+	 */
+	private String versionRecord() {
+		VocabSource source = VocabSource.of(vocabFile);
+		List<Object> record = new ArrayList<>();
+		record.add("v");
+		record.add(source.getLength());
+		record.add(source.getLastModified());
+		return JSONArray.toJSONString(record);
+	}
+
+	/**
+	 * Applies one record to the model.
+	 *
+	 * @param record
+	 * @param model
+	 */
+	private static void apply(List<?> record, VocabModel model) {
+		String cat = (String) record.get(1);
+		switch ((String) record.get(0)) {
+			case "c":
+				model.addCategory(cat);
+				break;
+			case "r":
+				model.renameCategory(cat, (String) record.get(2));
+				break;
+			case "a":
+				model.addVocabItem(cat, readItem(record, 2));
+				break;
+			case "d":
+				model.removeVocabItem(cat, readItem(record, 2));
+				break;
+			case "e":
+				VocabItem oldItem = readItem(record, 2);
+				VocabItem newItem = readItem(record, 7);
+				List<VocabItem> items = model.getVocabItems(cat);
+				if (items == null) {
+					break;
+				}
+				for (VocabItem item : items) {
+					if (item.equals(oldItem)) {
+						item.setEnglish(newItem.getEnglish());
+						item.setRomaji(newItem.getRomaji());
+						item.setKana(newItem.getKana());
+						item.setKanji(newItem.getKanji());
+						item.setLesson(newItem.getLesson());
+						break;
+					}
+				}
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown journal record: " + record.get(0));
+		}
+	}
+
+	/**
+	 * Adds the values of an item to a record.
+	 *
+	 * @param record
+	 * @param item
+	 */
+	private static void addItem(List<Object> record, VocabItem item) {
+		record.add(item.getEnglish());
+		record.add(item.getRomaji());
+		record.add(item.getKana());
+		record.add(item.getKanji());
+		record.add(item.getLesson());
+	}
+
+	/**
+	 * Reads the values of an item from a record.
+	 *
+	 * @param record
+	 * @param start the index of the English value.
+	 * @return
+	 */
+	private static VocabItem readItem(List<?> record, int start) {
+		return new VocabItem(
+				(String) record.get(start),
+				(String) record.get(start + 1),
+				(String) record.get(start + 2),
+				(String) record.get(start + 3),
+				((Number) record.get(start + 4)).intValue());
+	}
+
+	/**
+	 * Writes a record to the end of the journal and schedules a sync.
+	 *
+	 * @param record
+	 */
+	private synchronized void append(String record) {
+		if (channel == null) {
+			return;
+		}
+		ByteBuffer bytes = StandardCharsets.UTF_8.encode(record + "\n");
+		try {
+			while (bytes.hasRemaining()) {
+				position += channel.write(bytes);
+			}
+		}
+		catch (IOException ex) {
+			logger.log(Level.SEVERE, "Could not write journal: {0}", ex.getLocalizedMessage());
+			return;
+		}
+		if (syncTask == null) {
+			syncTask = new TimerTask() {
+				@Override
+				public void run() {
+					sync(this);
+				}
+			};
+			getSyncTimer().schedule(syncTask, SYNC_DELAY);
+		}
+	}
+
+	/**
+	 * Forces the journal to disk from the sync timer.
+	 *
+	 * @param task the task doing the sync.
+	 */
+	private synchronized void sync(TimerTask task) {
+		if (syncTask != task) {
+			return;
+		}
+		syncTask = null;
+		try {
+			if (channel != null) {
+				channel.force(false);
+			}
+		}
+		catch (IOException ex) {
+			logger.log(Level.WARNING, "Could not sync journal: {0}", ex.getLocalizedMessage());
+		}
+	}
+
+	/**
+	 * Opens the journal file for appending, starting it with the version
+	 * record if it is empty.
+	 *
+	 * @param truncate
+	 * @throws IOException
+	 */
+	private void open(boolean truncate) throws IOException {
+		channel = truncate
+				? FileChannel.open(file.toPath(), StandardOpenOption.READ,
+						StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+						StandardOpenOption.TRUNCATE_EXISTING)
+				: FileChannel.open(file.toPath(), StandardOpenOption.READ,
+						StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+		position = channel.size();
+		channel.position(position);
+		if (position == 0) {
+			append(versionRecord());
+		}
+	}
+
+	private void closeChannel() {
+		if (channel != null) {
+			try {
+				channel.close();
+			}
+			catch (IOException ex) {
+				logger.log(Level.WARNING, "Could not close journal: {0}", ex.getLocalizedMessage());
+			}
+			channel = null;
+		}
+	}
+
+	private static synchronized Timer getSyncTimer() {
+		if (syncTimer == null) {
+			syncTimer = new Timer("VocabJournal sync", true);
+		}
+		return syncTimer;
+	}
+}
@@ -5,50 +5,481 @@
  */
 package psyberchi.app.japanesevocabjsoneditor.model;
 
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.json.simple.JSONAware;
+import org.json.simple.JSONStreamAware;
+import org.json.simple.parser.ParseException;
 
 /**
  * @author Kendall Conrad
  */
-public class VocabModel implements JSONAware {
+public class VocabModel implements JSONAware, JSONStreamAware {
 	private static final Logger logger = Logger.getLogger(VocabModel.class.getCanonicalName());
-	private HashMap<String, ArrayList<VocabItem>> categories = new HashMap<>();
+	public static final String PROP_CATEGORY_ADDED = "PROP_CATEGORY_ADDED";
+	public static final String PROP_CATEGORY_RENAMED = "PROP_CATEGORY_RENAMED";
+	public static final String PROP_VOCAB_ADDED = "PROP_VOCAB_ADDED";
+	public static final String PROP_VOCAB_REMOVED = "PROP_VOCAB_REMOVED";
+	public static final String PROP_VOCAB_CHANGED = "PROP_VOCAB_CHANGED";
+	/**
+	 * The categories, kept sorted by name.
+	 */
+	private TreeMap<String, VocabCategory> categories = new TreeMap<>();
+	/**
+	 * Unmodifiable snapshot of the sorted category names, dropped whenever a
+	 * category is added or renamed.
+	 */
+	private List<String> categoryNames = null;
+	/**
+	 * Index of the vocabulary by lesson, sorted by lesson number.
+	 */
+	private TreeMap<Integer, Set<VocabItem>> lessonIndex = new TreeMap<>();
+	/**
+	 * Sorted lists handed out by {@link #getVocabItems(int)}, dropped when a
+	 * lesson's vocabulary changes.
+	 */
+	private HashMap<Integer, ArrayList<VocabItem>> lessonItemsCache = new HashMap<>();
+	/**
+	 * The number of vocabulary of each lesson, not counting category labels,
+	 * kept up to date with the lesson index.
+	 */
+	private HashMap<Integer, int[]> lessonCounts = new HashMap<>();
+	/**
+	 * Index of the text of the vocabulary, built the first time it is
+	 * searched and kept up to date from then on.
+	 */
+	private NgramIndex textIndex = null;
+	/**
+	 * Index of the romaji and kana readings, built the first time it is
+	 * searched and kept up to date from then on.
+	 */
+	private ReadingIndex readingIndex = null;
+	/**
+	 * Index of the romaji for fuzzy searches, built the first time it is
+	 * searched and kept up to date from then on.
+	 */
+	private RomajiIndex romajiIndex = null;
+	/**
+	 * The total number of vocabulary items in all categories.
+	 */
+	private int vocabCount = 0;
+	/**
+	 * Counts every change made to the model, so it can be told whether the
+	 * model changed since a given point.
+	 */
+	private long modCount = 0;
+	/**
+	 * The file the unmodified categories can be copied from when saving.
+	 */
+	private VocabSource source = null;
+	/**
+	 * Reads in the categories left unread when the model was read, null if
+	 * there are none.
+	 */
+	private CategoryLoader loader = null;
+	/**
+	 * Whether the vocabulary is kept in {@link VocabColumns}.
+	 */
+	private boolean columnar = false;
+	/**
+	 * Property change support object.
+	 */
+	private final PropertyChangeSupport pcs = new PropertyChangeSupport(this);
+	/**
+	 * A copy of the item being changed, taken before the change when there
+	 * are listeners to tell.
+	 */
+	private VocabItem changingItem = null;
 
 	public VocabModel() {
 		//
 	}
 
+	/**
+	 * Adds a listener that is told of every change to the categories and
+	 * vocabulary through {@link VocabChangeEvent}s.
+	 *
+	 * @param listener
+	 */
+	public void addPropertyChangeListener(PropertyChangeListener listener) {
+		pcs.addPropertyChangeListener(listener);
+	}
+
+	/**
+	 * Removes a listener added with
+	 * {@link #addPropertyChangeListener(PropertyChangeListener)}.
+	 *
+	 * @param listener
+	 */
+	public void removePropertyChangeListener(PropertyChangeListener listener) {
+		pcs.removePropertyChangeListener(listener);
+	}
+
 	@Override
 	public String toJSONString() {
-		StringBuilder json = new StringBuilder();
-		json.append("{\n");
+		StringWriter json = new StringWriter();
+		try {
+			writeJSONString(json);
+		}
+		catch (IOException ex) {
+			// A StringWriter does not throw
+			logger.log(Level.SEVERE, "Problem creating JSON: {0}", ex.getLocalizedMessage());
+		}
+		return json.toString();
+	}
+
+	/**
+	 * Writes the model as JSON to the given Writer one category at a time, so
+	 * the whole document is never built up in memory.
+	 *
+	 * @param out the Writer to write to.
+	 * @throws IOException
+	 */
+	@Override
+	public void writeJSONString(Writer out) throws IOException {
+		out.write("{\n");
 		int catCount = 0;
 		int catSize = getCategoryCount();
 
 		for (String cat : getCategories()) {
-			json.append("\t\"").append(cat).append("\": [\n");
-			ArrayList<VocabItem> items = getVocabItems(cat);
-			for (int a = 0; a < items.size(); a++) {
-				json.append("\t\t").append(items.get(a).toJSONString());
-				if (a + 1 < items.size()) {
-					json.append(",");
+			out.write('\t');
+			writeCategoryEntry(out, cat, getVocabItems(cat));
+			out.write(++catCount < catSize ? ",\n" : "\n");
+		}
+		out.write("}\n");
+	}
+
+	/**
+	 * Writes one category entry of the model's JSON form, from the quote
+	 * opening its name to the bracket closing its array.
+	 *
+	 * @param out the Writer to write to.
+	 * @param cat the category name.
+	 * @param items the vocabulary of the category.
+	 * @throws IOException
+	 */
+	static void writeCategoryEntry(Writer out, String cat, List<VocabItem> items)
+			throws IOException {
+		out.write('"');
+		JsonText.appendEscaped(out, cat);
+		out.write("\": [\n");
+		for (int a = 0; a < items.size(); a++) {
+			out.write("\t\t");
+			items.get(a).appendJSON(out);
+			if (a + 1 < items.size()) {
+				out.write(',');
+			}
+			out.write('\n');
+		}
+		out.write("\t]");
+	}
+
+	/**
+	 * Takes a copy of the model's current categories and vocabulary that can
+	 * be written out on another thread while the model keeps being edited.
+	 * Only the item objects are copied, the Strings are shared.
+	 *
+	 * @return the snapshot.
+	 */
+	public VocabSnapshot createSnapshot() {
+		return createSnapshot(false);
+	}
+
+	/**
+	 * Takes a snapshot of the model like {@link #createSnapshot()}. When
+	 * reusing the source file, categories unmodified since the file was read
+	 * or saved are recorded only by their place in the file rather than
+	 * copied. Such a snapshot can only be written with
+	 * {@link JsonVocabIO#writeJsonFileIncremental(java.io.File, VocabSnapshot, boolean)}.
+	 *
+	 * @param reuseSource whether to refer to the source file for unmodified
+	 * categories.
+	 * @return the snapshot.
+	 */
+	public VocabSnapshot createSnapshot(boolean reuseSource) {
+		if (reuseSource && (source == null || !source.isCurrent())) {
+			if (source != null) {
+				logger.log(Level.INFO, "File ''{0}'' changed on disk, writing all categories.",
+						source.getFile());
+			}
+			reuseSource = false;
+		}
+		return new VocabSnapshot(this, reuseSource ? source : null);
+	}
+
+	/**
+	 * Records that a snapshot of the model has been written. Categories that
+	 * have not changed since the snapshot are marked unmodified at their new
+	 * place in the written file.
+	 *
+	 * @param snapshot a snapshot of this model that has been written.
+	 */
+	public void markSaved(VocabSnapshot snapshot) {
+		for (VocabCategory category : categories.values()) {
+			category.setSourceRange(-1, -1);
+		}
+		source = snapshot.getWrittenSource();
+		if (source == null) {
+			return;
+		}
+		for (VocabSnapshot.Entry entry : snapshot.getEntries()) {
+			VocabCategory category = categories.get(entry.name);
+			if (category == entry.category && entry.writtenStart >= 0
+					&& category.getModificationCount() == entry.modCount) {
+				category.setSourceRange(entry.writtenStart, entry.writtenEnd);
+			}
+		}
+	}
+
+	/**
+	 * Records the file the model was read from and where its categories are
+	 * in it. Called once the model has been read.
+	 *
+	 * @param file the file read.
+	 * @param ranges the {start, end} byte ranges of the categories by name.
+	 */
+	void setSource(VocabSource file, Map<String, long[]> ranges) {
+		source = file;
+		for (Map.Entry<String, long[]> range : ranges.entrySet()) {
+			VocabCategory category = categories.get(range.getKey());
+			if (category != null) {
+				category.setSourceRange(range.getValue()[0], range.getValue()[1]);
+			}
+		}
+	}
+
+	/**
+	 * Adds a category whose vocabulary is read in from a file the first time
+	 * it is needed. Used while reading the model.
+	 *
+	 * @param cat the name of the category, which must not exist yet.
+	 * @param loader reads the file.
+	 * @param range the {start, end, count} range of the category from a
+	 * {@link CategoryScanner}.
+	 */
+	void addLazyCategory(String cat, CategoryLoader loader, long[] range) {
+		VocabCategory category = new VocabCategory(this, cat);
+		category.setLoader(loader, range[0], range[1], (int) range[2]);
+		categories.put(cat, category);
+		categoryNames = null;
+		modCount++;
+		vocabCount += category.size();
+		this.loader = loader;
+	}
+
+	/**
+	 * Returns whether the vocabulary of every category has been read in.
+	 *
+	 * @return
+	 */
+	public boolean isLoaded() {
+		for (VocabCategory category : categories.values()) {
+			if (!category.isLoaded()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns whether the vocabulary of a category has been read in. Reading
+	 * a category in through the getters can only fail unchecked, so callers
+	 * that can show an error should read it with
+	 * {@link #loadCategory(String)} first.
+	 *
+	 * @param category
+	 * @return true if read in or there is no such category.
+	 */
+	public boolean isCategoryLoaded(String category) {
+		VocabCategory cat = categories.get(category);
+		return cat == null || cat.isLoaded();
+	}
+
+	/**
+	 * Reads in the vocabulary of a category if it hasn't been yet.
+	 *
+	 * @param category
+	 * @throws IOException if the category can't be read from its file.
+	 * @throws ParseException
+	 */
+	public void loadCategory(String category) throws IOException, ParseException {
+		VocabCategory cat = categories.get(category);
+		if (cat != null) {
+			cat.load();
+		}
+	}
+
+	/**
+	 * Returns a task that reads the vocabulary of the given categories from
+	 * their file, without adding it, so it can be run on another thread.
+	 * {@link #loadCategory(String)} then only has to add what was read.
+	 *
+	 * @param names the categories to read.
+	 * @return
+	 */
+	public Callable<Void> createCategoryReader(Collection<String> names) {
+		final List<VocabCategory> unread = new ArrayList<>();
+		for (String name : names) {
+			VocabCategory cat = categories.get(name);
+			if (cat != null && !cat.isLoaded()) {
+				unread.add(cat);
+			}
+		}
+		return new Callable<Void>() {
+			@Override
+			public Void call() throws IOException, ParseException {
+				for (VocabCategory cat : unread) {
+					cat.read();
 				}
-				json.append("\n");
+				return null;
 			}
-			json.append((catCount + 1 < catSize) ? "\t],\n" : "\t]\n");
-			catCount++;
+		};
+	}
+
+	/**
+	 * Reads in the vocabulary of every category not yet read.
+	 *
+	 * @throws IOException if a category can't be read from its file.
+	 * @throws ParseException
+	 */
+	public void loadAll() throws IOException, ParseException {
+		if (loader == null) {
+			return;
 		}
-		json.append("}\n");
-		return json.toString();
+		for (VocabCategory category : categories.values()) {
+			category.load();
+		}
+		loader = null;
+	}
+
+	/**
+	 * Reads in every category for the getters that cover all of the
+	 * vocabulary. Callers that can show an error should read them in first,
+	 * with {@link #loadAll()} or on another thread with
+	 * {@link #createCategoryReader(Collection)}.
+	 *
+	 * @throws IllegalStateException if a category can't be read.
+	 */
+	private void ensureAllLoaded() {
+		try {
+			loadAll();
+		}
+		catch (IOException | ParseException ex) {
+			throw new IllegalStateException("Could not read the vocabulary", ex);
+		}
+	}
+
+	/**
+	 * Returns whether the vocabulary is kept in column storage.
+	 *
+	 * @return
+	 */
+	public boolean isColumnarStorage() {
+		return columnar;
+	}
+
+	/**
+	 * Sets whether the vocabulary is kept in column storage, where the text of
+	 * all items is held in a few shared arrays instead of Strings of their
+	 * own. Turning it on packs all vocabulary read in so far, and categories
+	 * read in later are packed as they are read. Items that are edited, and
+	 * new items, hold their own values. Turning it on again repacks
+	 * everything, which frees the space of removed and edited items.
+	 *
+	 * @param columnar
+	 */
+	public void setColumnarStorage(boolean columnar) {
+		this.columnar = columnar;
+		List<VocabItem> items = new ArrayList<>(vocabCount);
+		for (VocabCategory category : categories.values()) {
+			if (category.isLoaded()) {
+				items.addAll(category.getItems());
+			}
+		}
+		if (columnar) {
+			int packed = VocabColumns.pack(items);
+			logger.log(Level.INFO, "Packed {0} of {1} vocabulary items into columns",
+					new Object[]{packed, items.size()});
+		}
+		else {
+			for (VocabItem item : items) {
+				item.detach();
+			}
+		}
+	}
+
+	/**
+	 * Releases the file the unread categories are read from. Their vocabulary
+	 * can't be read in afterwards, so this is for when the model is done
+	 * with.
+	 */
+	public void close() {
+		if (loader != null) {
+			loader.close();
+			loader = null;
+		}
+	}
+
+	/**
+	 * Returns the source file version the model refers to, null if none.
+	 *
+	 * @return
+	 */
+	VocabSource getSource() {
+		return source;
+	}
+
+	/**
+	 * Returns the categories that have been modified since the model was
+	 * read or last saved.
+	 *
+	 * @return the sorted names of the modified categories.
+	 */
+	public List<String> getModifiedCategories() {
+		List<String> modified = new ArrayList<>();
+		for (VocabCategory category : categories.values()) {
+			if (category.isModified()) {
+				modified.add(category.getName());
+			}
+		}
+		return modified;
+	}
+
+	/**
+	 * Returns whether a category has been modified since the model was read
+	 * or last saved.
+	 *
+	 * @param category
+	 * @return true if modified or not in any file yet, false otherwise.
+	 */
+	public boolean isCategoryModified(String category) {
+		VocabCategory cat = categories.get(category);
+		return cat != null && cat.isModified();
+	}
+
+	/**
+	 * Returns the category objects, sorted by name.
+	 *
+	 * @return
+	 */
+	Collection<VocabCategory> getCategoryObjects() {
+		return categories.values();
 	}
 
 	/**
@@ -59,8 +490,11 @@ public class VocabModel implements JSONAware {
 	 */
 	public boolean addCategory(String cat) {
 		if (!categories.containsKey(cat)) {
-			categories.put(cat, new ArrayList<VocabItem>());
+			categories.put(cat, new VocabCategory(this, cat));
+			categoryNames = null;
+			modCount++;
 			logger.log(Level.FINE, "Adding category: {0}", cat);
+			pcs.firePropertyChange(new VocabChangeEvent(this, PROP_CATEGORY_ADDED, cat, null, cat));
 			return true;
 		}
 		return false;
@@ -75,14 +509,26 @@ public class VocabModel implements JSONAware {
 	 * or the vocabulary item already exist in the category.
 	 */
 	public boolean addVocabItem(String cat, VocabItem item) {
-		if (categories.containsKey(cat)) {
-			if (!categories.get(cat).contains(item)) {
-				categories.get(cat).add(item);
-				logger.log(Level.FINE, "Adding vocab to category {0}: {1}",
-						new Object[]{cat, item.toJSONString()});
+		VocabCategory category = categories.get(cat);
+		if (category != null) {
+			if (item.getCategory() != null) {
+				if (logger.isLoggable(Level.WARNING)) {
+					logger.log(Level.WARNING, "Vocabulary already belongs to category {0}: {1}",
+							new Object[]{item.getCategory().getName(), item.getEnglish()});
+				}
+				return false;
+			}
+			if (category.add(item)) {
+				// Called for every item read, so only build the message when it is wanted
+				if (logger.isLoggable(Level.FINE)) {
+					logger.log(Level.FINE, "Adding vocab to category {0}: {1}",
+							new Object[]{cat, item.toJSONString()});
+				}
 				return true;
 			}
-			logger.log(Level.WARNING, "Vocabulary already exist: {0}", item.getEnglish());
+			if (logger.isLoggable(Level.WARNING)) {
+				logger.log(Level.WARNING, "Vocabulary already exist: {0}", item.getEnglish());
+			}
 			return false;
 		}
 		logger.log(Level.WARNING, "Category doesn''t exist: {0}", new Object[]{cat});
@@ -90,20 +536,27 @@ public class VocabModel implements JSONAware {
 	}
 
 	/**
-	 * Gets the names of the categories.
+	 * Gets the sorted names of the categories. The list is an unmodifiable
+	 * snapshot that is shared between calls until the categories change.
 	 *
 	 * @return
 	 */
 	public List<String> getCategories() {
-		Set<String> keyset = categories.keySet();
-		Iterator<String> iter = keyset.iterator();
-		List<String> cats = new ArrayList<>();
-		int a = 0;
-		while (iter.hasNext()) {
-			cats.add(iter.next());
+		if (categoryNames == null) {
+			categoryNames = Collections.unmodifiableList(
+					new ArrayList<>(categories.keySet()));
 		}
-		Collections.sort(cats);
-		return cats;
+		return categoryNames;
+	}
+
+	/**
+	 * Returns a count of the changes made to the model. Any change to the
+	 * categories or vocabulary increases it.
+	 *
+	 * @return
+	 */
+	public long getModificationCount() {
+		return modCount;
 	}
 
 	/**
@@ -116,33 +569,50 @@ public class VocabModel implements JSONAware {
 	}
 
 	/**
-	 * Returns and array of all lesson numbers present in the model.
+	 * Returns a sorted list of all lesson numbers present in the model.
 	 *
 	 * @return
 	 */
 	public List<Integer> getLessons() {
-		ArrayList<Integer> lessons = new ArrayList<>();
-		for (Map.Entry<String, ArrayList<VocabItem>> set : categories.entrySet()) {
-			for (VocabItem item : set.getValue()) {
-				if (!lessons.contains(item.getLesson())) {
-					lessons.add(item.getLesson());
-				}
-			}
-		}
-		return lessons;
+		ensureAllLoaded();
+		return new ArrayList<>(lessonIndex.keySet());
 	}
 
 	/**
-	 * Returns the total number of vocabulary in the model.
+	 * Returns the total number of vocabulary in the model. The count is kept
+	 * up to date as items are added and removed. Categories not yet read in
+	 * count the items in their file.
 	 *
 	 * @return
 	 */
 	public int getVocabCount() {
-		int total = 0;
-		for (ArrayList<VocabItem> set : categories.values()) {
-			total += set.size();
-		}
-		return total;
+		return vocabCount;
+	}
+
+	/**
+	 * Returns the number of vocabulary items in a category.
+	 *
+	 * @param category
+	 * @return the number of items, 0 if the category doesn't exist.
+	 */
+	public int getVocabCount(String category) {
+		VocabCategory cat = categories.get(category);
+		return cat == null ? 0 : cat.size();
+	}
+
+	/**
+	 * Returns the number of vocabulary items that have the given lesson value,
+	 * not counting category labels, so the same items as
+	 * {@link #getVocabItems(int)} lists. The count is kept up to date as
+	 * items change. Like the lesson index, it only covers categories that
+	 * have been read in.
+	 *
+	 * @param lesson
+	 * @return
+	 */
+	public int getLessonVocabCount(int lesson) {
+		int[] count = lessonCounts.get(lesson);
+		return count == null ? 0 : count[0];
 	}
 
 	/**
@@ -150,33 +620,232 @@ public class VocabModel implements JSONAware {
 	 *
 	 * @param category the category to retrieve the vocabulary from.
 	 * @return the list of vocabulary of the category, null if the category
+	 * doesn't exist. The list can't be modified and doesn't change when the
+	 * category does.
+	 */
+	public List<VocabItem> getVocabItems(String category) {
+		VocabCategory cat = categories.get(category);
+		return cat == null ? null : cat.getItems();
+	}
+
+	/**
+	 * Get the vocabulary of the given category in the given order. The sorted
+	 * list is kept until the category changes, so asking again for an
+	 * unchanged category doesn't sort it again. The list can't be modified.
+	 *
+	 * @param category the category to retrieve the vocabulary from.
+	 * @param order the order to sort in, such as a {@link VocabComparator}.
+	 * @return the sorted vocabulary of the category, null if the category
 	 * doesn't exist.
 	 */
-	public ArrayList<VocabItem> getVocabItems(String category) {
-		return categories.get(category);
+	public List<VocabItem> getVocabItems(String category, Comparator<VocabItem> order) {
+		VocabCategory cat = categories.get(category);
+		return cat == null ? null : cat.getSortedItems(order);
 	}
 
 	/**
 	 * Retrieves all VocabItem that have a lesson value matching the given
-	 * lesson passed in.
+	 * lesson passed in, sorted by English. The list comes from the lesson
+	 * index and is shared until the lesson changes, so it must not be
+	 * modified.
 	 *
 	 * @param lesson
 	 * @return
 	 */
 	public ArrayList<VocabItem> getVocabItems(int lesson) {
-		ArrayList<VocabItem> items = new ArrayList<>();
-		for (Map.Entry<String, ArrayList<VocabItem>> set : categories.entrySet()) {
-			for (VocabItem item : set.getValue()) {
-				// If the lesson number matches and it's not a category label
-				if (item.getLesson() == lesson && !item.getEnglish().startsWith("#")) {
+		ensureAllLoaded();
+		ArrayList<VocabItem> items = lessonItemsCache.get(lesson);
+		if (items != null) {
+			return items;
+		}
+		items = new ArrayList<>();
+		Set<VocabItem> lessonItems = lessonIndex.get(lesson);
+		if (lessonItems != null) {
+			for (VocabItem item : lessonItems) {
+				// Skip category labels
+				if (!item.getEnglish().startsWith("#")) {
 					items.add(item);
 				}
 			}
+			items = VocabComparator.ENGLISH.sort(items);
 		}
-		Collections.sort(items, new EnglishComparator());
+		lessonItemsCache.put(lesson, items);
 		return items;
 	}
 
+	/**
+	 * Finds the vocabulary of all categories with the given text anywhere in
+	 * their English, romaji, kana or kanji, ignoring case and whether kana is
+	 * hiragana or katakana. The first search reads in every category and
+	 * indexes the vocabulary, later searches use the index.
+	 *
+	 * @param text the text to look for.
+	 * @return the matching vocabulary, in the order it was added to the
+	 * model. Empty if the text is empty.
+	 */
+	public List<VocabItem> findVocabItems(String text) {
+		return getTextIndex().find(text);
+	}
+
+	/**
+	 * Returns whether the text of the vocabulary has been indexed for
+	 * {@link #findVocabItems(String)}.
+	 *
+	 * @return
+	 */
+	public boolean hasTextIndex() {
+		return textIndex != null;
+	}
+
+	/**
+	 * Indexes the text of the vocabulary now rather than on the first search,
+	 * reading in every category. The index is kept up to date from then on.
+	 */
+	public void buildTextIndex() {
+		getTextIndex();
+	}
+
+	/**
+	 * Returns the text index, building it if this is the first use.
+	 *
+	 * @return
+	 */
+	NgramIndex getTextIndex() {
+		if (textIndex == null) {
+			ensureAllLoaded();
+			textIndex = new NgramIndex();
+			for (VocabCategory category : categories.values()) {
+				for (VocabItem item : category.getItems()) {
+					textIndex.add(item);
+				}
+			}
+			logger.log(Level.INFO, "Indexed the text of {0} vocabulary items", textIndex.size());
+		}
+		return textIndex;
+	}
+
+	/**
+	 * Finds the vocabulary of all categories with a romaji or kana reading
+	 * starting with the given text, for completing what is being typed or
+	 * jumping to a word. Case and whether kana is hiragana or katakana don't
+	 * matter. The first search reads in every category and indexes the
+	 * readings, later searches use the index.
+	 *
+	 * @param prefix the start of the reading.
+	 * @param limit the most items to return.
+	 * @return the matching vocabulary, sorted by the matching reading.
+	 */
+	public List<VocabItem> findVocabItemsByReading(String prefix, int limit) {
+		if (readingIndex == null) {
+			buildReadingIndex();
+		}
+		return readingIndex.find(prefix, limit);
+	}
+
+	/**
+	 * Returns whether the readings of the vocabulary have been indexed for
+	 * {@link #findVocabItemsByReading(String, int)}.
+	 *
+	 * @return
+	 */
+	public boolean hasReadingIndex() {
+		return readingIndex != null;
+	}
+
+	/**
+	 * Indexes the readings of all vocabulary at once, reading in every
+	 * category. The index is kept up to date from then on.
+	 */
+	public void buildReadingIndex() {
+		ensureAllLoaded();
+		List<VocabItem> items = new ArrayList<>(vocabCount);
+		for (VocabCategory category : categories.values()) {
+			items.addAll(category.getItems());
+		}
+		readingIndex = new ReadingIndex(items);
+		logger.log(Level.INFO, "Indexed {0} readings of {1} vocabulary items",
+				new Object[]{readingIndex.size(), items.size()});
+	}
+
+	/**
+	 * Finds the vocabulary of all categories with romaji spelled like the
+	 * given romaji, allowing for the different ways of writing romaji, such
+	 * as "ou", "oo" and a macron for a long o, or "si" for "shi", and for
+	 * up to the given number of other differences. The first search reads in
+	 * every category and indexes the romaji, later searches use the index.
+	 *
+	 * @param romaji the romaji to look for.
+	 * @param maxDistance the most single letter insertions, deletions or
+	 * changes allowed.
+	 * @return the matching vocabulary, the closest first.
+	 */
+	public List<VocabItem> findVocabItemsByRomaji(String romaji, int maxDistance) {
+		return getRomajiIndex().find(romaji, maxDistance);
+	}
+
+	/**
+	 * Finds groups of vocabulary, from any category, whose romaji are spelled
+	 * alike as for {@link #findVocabItemsByRomaji(String, int)}, for reporting
+	 * likely duplicates. Each group is an item and the items near it. Short
+	 * words need to be closer: one difference is allowed for every five
+	 * letters, up to the given most.
+	 *
+	 * @param maxDistance the most single letter differences between items in
+	 * a group, 0 for only the same word spelled differently.
+	 * @return the groups of two or more items.
+	 */
+	public List<List<VocabItem>> findNearDuplicates(int maxDistance) {
+		return getRomajiIndex().findNearDuplicates(maxDistance);
+	}
+
+	/**
+	 * Returns whether the romaji of the vocabulary has been indexed for fuzzy
+	 * searches.
+	 *
+	 * @return
+	 */
+	public boolean hasRomajiIndex() {
+		return romajiIndex != null;
+	}
+
+	/**
+	 * Indexes the romaji of all vocabulary at once, reading in every
+	 * category. The index is kept up to date from then on.
+	 */
+	public void buildRomajiIndex() {
+		ensureAllLoaded();
+		List<VocabItem> items = new ArrayList<>(vocabCount);
+		for (VocabCategory category : categories.values()) {
+			items.addAll(category.getItems());
+		}
+		romajiIndex = new RomajiIndex(items);
+		logger.log(Level.INFO, "Indexed the romaji of {0} vocabulary items", romajiIndex.size());
+	}
+
+	/**
+	 * Returns the romaji index, building it if this is the first use.
+	 *
+	 * @return
+	 */
+	private RomajiIndex getRomajiIndex() {
+		if (romajiIndex == null) {
+			buildRomajiIndex();
+		}
+		return romajiIndex;
+	}
+
+	/**
+	 * Returns the name of the category a vocabulary item belongs to.
+	 *
+	 * @param item
+	 * @return the category name, null if the item is not in this model.
+	 */
+	public String getCategoryName(VocabItem item) {
+		VocabCategory category = item.getCategory();
+		return category != null && categories.get(category.getName()) == category
+				? category.getName() : null;
+	}
+
 	/**
 	 * Returns whether or not a category exists.
 	 *
@@ -187,6 +856,19 @@ public class VocabModel implements JSONAware {
 		return categories.containsKey(category);
 	}
 
+	/**
+	 * Returns whether a category has a vocabulary item equal to the given
+	 * one. The check is a hash lookup rather than a scan of the category.
+	 *
+	 * @param category the category to look in.
+	 * @param item the vocabulary item to look for.
+	 * @return true if the category exists and has the item, false otherwise.
+	 */
+	public boolean hasVocabItem(String category, VocabItem item) {
+		VocabCategory cat = categories.get(category);
+		return cat != null && item != null && cat.contains(item);
+	}
+
 	/**
 	 * Removes a given VocabItem from a given category if both exist.
 	 *
@@ -196,11 +878,13 @@ public class VocabModel implements JSONAware {
 	 */
 	public boolean removeVocabItem(String category, VocabItem item) {
 		if (item != null) {
-			ArrayList<VocabItem> items = categories.get(category);
-			if (items != null && items.contains(item)) {
-				logger.log(Level.INFO, "Removing vocab from category {0}: {1}",
-						new Object[]{category, item.toJSONString()});
-				return items.remove(item);
+			VocabCategory cat = categories.get(category);
+			if (cat != null && cat.contains(item)) {
+				if (logger.isLoggable(Level.FINE)) {
+					logger.log(Level.FINE, "Removing vocab from category {0}: {1}",
+							new Object[]{category, item.toJSONString()});
+				}
+				return cat.remove(item) != null;
 			}
 		}
 		return false;
@@ -216,10 +900,176 @@ public class VocabModel implements JSONAware {
 	 */
 	public boolean renameCategory(String oldName, String newName) {
 		if (categories.containsKey(oldName) && !categories.containsKey(newName)) {
-			categories.put(newName, categories.remove(oldName));
+			VocabCategory category = categories.remove(oldName);
+			category.setName(newName);
+			categories.put(newName, category);
+			categoryNames = null;
+			modCount++;
 			logger.log(Level.INFO, "Renaming category: {0} to {1}", new Object[]{oldName, newName});
+			pcs.firePropertyChange(new VocabChangeEvent(this, PROP_CATEGORY_RENAMED, newName,
+					oldName, newName));
 			return true;
 		}
 		return false;
 	}
+
+	/**
+	 * Called when the vocabulary of a category has been read in.
+	 *
+	 * @param category
+	 * @param expected the number of items the category was counted as having
+	 * before.
+	 */
+	void categoryLoaded(VocabCategory category, int expected) {
+		vocabCount += category.size() - expected;
+		for (VocabItem item : category.getItems()) {
+			lessonAdd(item);
+			searchIndexAdd(item);
+		}
+		if (columnar) {
+			VocabColumns.pack(category.getItems());
+		}
+	}
+
+	/**
+	 * Called when an item has been added to a category.
+	 *
+	 * @param category
+	 * @param item
+	 */
+	void itemAdded(VocabCategory category, VocabItem item) {
+		modCount++;
+		vocabCount++;
+		lessonAdd(item);
+		searchIndexAdd(item);
+		if (pcs.hasListeners(null)) {
+			pcs.firePropertyChange(new VocabChangeEvent(this, PROP_VOCAB_ADDED,
+					category.getName(), null, item));
+		}
+	}
+
+	/**
+	 * Called when an item has been removed from a category.
+	 *
+	 * @param category
+	 * @param item
+	 */
+	void itemRemoved(VocabCategory category, VocabItem item) {
+		modCount++;
+		vocabCount--;
+		lessonRemove(item);
+		searchIndexRemove(item);
+		if (pcs.hasListeners(null)) {
+			pcs.firePropertyChange(new VocabChangeEvent(this, PROP_VOCAB_REMOVED,
+					category.getName(), item, null));
+		}
+	}
+
+	/**
+	 * Called just before a value of an item in a category changes.
+	 *
+	 * @param category
+	 * @param item
+	 */
+	void itemChanging(VocabCategory category, VocabItem item) {
+		lessonRemove(item);
+		searchIndexRemove(item);
+		changingItem = pcs.hasListeners(null) ? item.copy() : null;
+	}
+
+	/**
+	 * Called just after a value of an item in a category changed.
+	 *
+	 * @param category
+	 * @param item
+	 */
+	void itemChanged(VocabCategory category, VocabItem item) {
+		modCount++;
+		lessonAdd(item);
+		searchIndexAdd(item);
+		if (changingItem != null) {
+			VocabItem oldItem = changingItem;
+			changingItem = null;
+			pcs.firePropertyChange(new VocabChangeEvent(this, PROP_VOCAB_CHANGED,
+					category.getName(), oldItem, item));
+		}
+	}
+
+	/**
+	 * Adds an item to the lesson index.
+	 *
+	 * @param item
+	 */
+	private void lessonAdd(VocabItem item) {
+		Set<VocabItem> items = lessonIndex.get(item.getLesson());
+		if (items == null) {
+			items = Collections.newSetFromMap(new IdentityHashMap<VocabItem, Boolean>());
+			lessonIndex.put(item.getLesson(), items);
+		}
+		if (items.add(item) && !item.getEnglish().startsWith("#")) {
+			int[] count = lessonCounts.get(item.getLesson());
+			if (count == null) {
+				count = new int[1];
+				lessonCounts.put(item.getLesson(), count);
+			}
+			count[0]++;
+		}
+		lessonItemsCache.remove(item.getLesson());
+	}
+
+	/**
+	 * Adds an item to the search indexes that have been built.
+	 *
+	 * @param item
+	 */
+	private void searchIndexAdd(VocabItem item) {
+		if (textIndex != null) {
+			textIndex.add(item);
+		}
+		if (readingIndex != null) {
+			readingIndex.add(item);
+		}
+		if (romajiIndex != null) {
+			romajiIndex.add(item);
+		}
+	}
+
+	/**
+	 * Removes an item from the search indexes that have been built.
+	 *
+	 * @param item
+	 */
+	private void searchIndexRemove(VocabItem item) {
+		if (textIndex != null) {
+			textIndex.remove(item);
+		}
+		if (readingIndex != null) {
+			readingIndex.remove(item);
+		}
+		if (romajiIndex != null) {
+			romajiIndex.remove(item);
+		}
+	}
+
+	/**
+	 * Removes an item from the lesson index.
+	 *
+	 * @param item
+	 */
+	private void lessonRemove(VocabItem item) {
+		Set<VocabItem> items = lessonIndex.get(item.getLesson());
+		if (items == null || !items.remove(item)) {
+			return;
+		}
+		if (items.isEmpty()) {
+			lessonIndex.remove(item.getLesson());
+		}
+		if (!item.getEnglish().startsWith("#")) {
+			int[] count = lessonCounts.get(item.getLesson());
+			if (count != null && --count[0] == 0) {
+				lessonCounts.remove(item.getLesson());
+			}
+		}
+		lessonItemsCache.remove(item.getLesson());
+	}
 }
@@ -0,0 +1,374 @@
+/*
+ *  VocabSnapshot.java
+ *
+ *  GNU GPL License.
+ */
+package psyberchi.app.japanesevocabjsoneditor.model;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import org.json.simple.JSONStreamAware;
+import org.json.simple.parser.ParseException;
+
+/**
+ * A point in time copy of a {@link VocabModel} that can be written out as
+ * JSON on a background thread. Unmodified categories may instead be recorded
+ * by where they are in the model's source file.
+ *
+ * Taking a snapshot copies nothing but the category list: each category
+ * hands over its current list of items, which it no longer changes. Before
+ * an item of such a category is edited or removed, the category gives the
+ * snapshot a copy of its old values. The writer reads each item under the
+ * same lock, so it sees either the untouched item or the copy. Once the
+ * writer is past a category, or the snapshot is released, edits no longer
+ * make copies.
+ *
+ * Categories that had not been read in are not read in for the snapshot.
+ * The writer reads them from their file on its own thread, or is handed
+ * what they were read in with if that happened first.
+ *
+ * @author Kendall Conrad
+ */
+public class VocabSnapshot implements JSONStreamAware {
+	/**
+	 * One category of the snapshot.
+	 */
+	static class Entry {
+		final String name;
+		/**
+		 * The model's category, only to be used on the thread that owns the
+		 * model.
+		 */
+		final VocabCategory category;
+		/**
+		 * The category's modification count when the snapshot was taken.
+		 */
+		final long modCount;
+		/**
+		 * The vocabulary as it was when the snapshot was taken, null if the
+		 * category is copied from the source file.
+		 */
+		final List<VocabItem> items;
+		/**
+		 * The category's list of items at the time of the snapshot, null
+		 * until read if the category had not been read in.
+		 */
+		private List<VocabItem> frozen;
+		/**
+		 * Copies of the items changed since the snapshot, by the item.
+		 */
+		private IdentityHashMap<VocabItem, VocabItem> preserved = null;
+		/**
+		 * Whether the category has been written, after which no more copies
+		 * are needed.
+		 */
+		private boolean finished = false;
+		final long sourceStart;
+		final long sourceEnd;
+		/**
+		 * Where the category ended up in the written file, -1 if not known.
+		 */
+		long writtenStart = -1;
+		long writtenEnd = -1;
+
+		Entry(VocabCategory category, boolean copyItems) {
+			this.name = category.getName();
+			this.category = category;
+			this.modCount = category.getModificationCount();
+			this.sourceStart = copyItems ? -1 : category.getSourceStart();
+			this.sourceEnd = copyItems ? -1 : category.getSourceEnd();
+			if (copyItems) {
+				synchronized (this) {
+					this.frozen = category.freeze(this);
+				}
+				this.items = new AbstractList<VocabItem>() {
+					@Override
+					public VocabItem get(int index) {
+						return itemAt(index);
+					}
+
+					@Override
+					public int size() {
+						synchronized (Entry.this) {
+							return frozen.size();
+						}
+					}
+				};
+			}
+			else {
+				this.frozen = null;
+				this.items = null;
+			}
+		}
+
+		/**
+		 * Reads the vocabulary of the category from its file if it had not
+		 * been read in when the snapshot was taken. Called on the thread
+		 * writing the snapshot before {@link #items} is used.
+		 *
+		 * @throws IOException if the category can't be read.
+		 */
+		void read() throws IOException {
+			synchronized (this) {
+				if (items == null || frozen != null) {
+					return;
+				}
+			}
+			List<VocabItem> read;
+			try {
+				read = category.read();
+			}
+			catch (ParseException ex) {
+				throw new IOException("Could not read category " + name, ex);
+			}
+			// Null if it has been read in since, which handed over the items
+			if (read != null) {
+				setRead(read);
+			}
+		}
+
+		/**
+		 * Hands over the vocabulary the category was read in with, if the
+		 * snapshot is still waiting for it.
+		 *
+		 * @param read
+		 */
+		synchronized void setRead(List<VocabItem> read) {
+			if (frozen == null && items != null) {
+				frozen = read;
+			}
+		}
+
+		/**
+		 * Keeps a copy of an item's values before it is edited or removed.
+		 * Called by the category on the thread that owns the model.
+		 *
+		 * @param item an item of the category.
+		 * @return false if the snapshot no longer needs copies.
+		 */
+		synchronized boolean preserve(VocabItem item) {
+			if (finished) {
+				return false;
+			}
+			if (preserved == null) {
+				preserved = new IdentityHashMap<>();
+			}
+			if (!preserved.containsKey(item)) {
+				preserved.put(item, item.copy());
+			}
+			return true;
+		}
+
+		/**
+		 * Returns a copy of the item at the given index as it was when the
+		 * snapshot was taken. Copied under the lock, so the item can't be
+		 * part way through an edit.
+		 *
+		 * @param index
+		 * @return
+		 */
+		private synchronized VocabItem itemAt(int index) {
+			VocabItem item = frozen.get(index);
+			VocabItem copy = (preserved == null) ? null : preserved.get(item);
+			return copy != null ? copy : item.copy();
+		}
+
+		/**
+		 * Stops keeping copies, once the category is written or won't be.
+		 */
+		synchronized void finish() {
+			finished = true;
+			preserved = null;
+		}
+	}
+	/**
+	 * The categories, sorted by name.
+	 */
+	private final List<Entry> entries;
+	/**
+	 * The file unmodified categories are copied from, null if all categories
+	 * were copied.
+	 */
+	private final VocabSource source;
+	/**
+	 * The file the snapshot was written to, once known.
+	 */
+	private VocabSource writtenSource = null;
+	/**
+	 * The model's modification count when the snapshot was taken.
+	 */
+	private final long modificationCount;
+	private final int vocabCount;
+	/**
+	 * The category of each item found by {@link #findNearDuplicates(int)}.
+	 */
+	private IdentityHashMap<VocabItem, String> categoryNames = null;
+
+	/**
+	 * Takes a snapshot of the given model.
+	 *
+	 * @param model
+	 * @param source the file to copy unmodified categories from, null to copy
+	 * all categories.
+	 */
+	VocabSnapshot(VocabModel model, VocabSource source) {
+		Collection<VocabCategory> categories = model.getCategoryObjects();
+		entries = new ArrayList<>(categories.size());
+		for (VocabCategory category : categories) {
+			entries.add(new Entry(category, source == null || category.isModified()));
+		}
+		this.source = source;
+		modificationCount = model.getModificationCount();
+		vocabCount = model.getVocabCount();
+	}
+
+	/**
+	 * Lets the model's categories stop keeping copies of edited items for the
+	 * snapshot. Called once the snapshot has been written, or won't be.
+	 */
+	public void release() {
+		for (Entry entry : entries) {
+			entry.finish();
+		}
+	}
+
+	/**
+	 * Reads the categories that had not been read in when the snapshot was
+	 * taken. Writers read them as they go, but this has to be called first
+	 * when the file they are read from is about to be overwritten in place.
+	 *
+	 * @throws IOException if a category can't be read.
+	 */
+	public void read() throws IOException {
+		for (Entry entry : entries) {
+			entry.read();
+		}
+	}
+
+	/**
+	 * Finds groups of vocabulary whose romaji are spelled alike, the same as
+	 * {@link VocabModel#findNearDuplicates(int)} but in the snapshot, so it
+	 * can be run on another thread while the model is being edited. Only
+	 * snapshots that copied all of their categories can be searched.
+	 *
+	 * @param maxDistance the most single letter differences between items in
+	 * a group.
+	 * @return the groups of two or more items, which are copies.
+	 * @throws IOException if a category not read in can't be read.
+	 * @see #getCategoryName(VocabItem)
+	 */
+	public List<List<VocabItem>> findNearDuplicates(int maxDistance) throws IOException {
+		List<VocabItem> items = new ArrayList<>(vocabCount);
+		categoryNames = new IdentityHashMap<>(vocabCount);
+		for (Entry entry : entries) {
+			if (entry.items == null) {
+				throw new IllegalStateException("Category is not copied in the snapshot: " + entry.name);
+			}
+			entry.read();
+			for (VocabItem item : entry.items) {
+				items.add(item);
+				categoryNames.put(item, entry.name);
+			}
+		}
+		return new RomajiIndex(items).findNearDuplicates(maxDistance);
+	}
+
+	/**
+	 * Returns the name of the category of an item found by
+	 * {@link #findNearDuplicates(int)}.
+	 *
+	 * @param item
+	 * @return the name, null if not known.
+	 */
+	public String getCategoryName(VocabItem item) {
+		return categoryNames == null ? null : categoryNames.get(item);
+	}
+
+	/**
+	 * Returns the number of categories in the snapshot.
+	 *
+	 * @return
+	 */
+	public int getCategoryCount() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns the number of categories that are copied from the source file.
+	 *
+	 * @return
+	 */
+	public int getReusedCategoryCount() {
+		int count = 0;
+		for (Entry entry : entries) {
+			if (entry.items == null) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the model's modification count at the time of the snapshot.
+	 *
+	 * @return
+	 */
+	public long getModificationCount() {
+		return modificationCount;
+	}
+
+	/**
+	 * Returns the number of vocabulary items in the snapshot.
+	 *
+	 * @return
+	 */
+	public int getVocabCount() {
+		return vocabCount;
+	}
+
+	List<Entry> getEntries() {
+		return entries;
+	}
+
+	VocabSource getSource() {
+		return source;
+	}
+
+	VocabSource getWrittenSource() {
+		return writtenSource;
+	}
+
+	void setWrittenSource(VocabSource writtenSource) {
+		this.writtenSource = writtenSource;
+	}
+
+	/**
+	 * Writes the snapshot in the same JSON form as
+	 * {@link VocabModel#writeJSONString(Writer)}. Only snapshots that copied
+	 * all of their categories can be written this way.
+	 *
+	 * @param out
+	 * @throws IOException if a category is only recorded in the source file.
+	 */
+	@Override
+	public void writeJSONString(Writer out) throws IOException {
+		out.write("{\n");
+		for (int a = 0; a < entries.size(); a++) {
+			Entry entry = entries.get(a);
+			if (entry.items == null) {
+				throw new IOException("Category is not copied in the snapshot: " + entry.name);
+			}
+			entry.read();
+			out.write('\t');
+			VocabModel.writeCategoryEntry(out, entry.name, entry.items);
+			entry.finish();
+			out.write(a + 1 < entries.size() ? ",\n" : "\n");
+		}
+		out.write("}\n");
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ *  VocabSource.java
+ *
+ *  GNU GPL License.
+ */
+package psyberchi.app.japanesevocabjsoneditor.model;
+
+import java.io.File;
+
+/**
+ * Identifies the version of a file that a model was read from or last saved
+ * to, so byte ranges recorded in it are only reused while the file on disk is
+ * still that version.
+ *
+ * @author Kendall Conrad
+ */
+final class VocabSource {
+	private final File file;
+	private final long length;
+	private final long lastModified;
+
+	private VocabSource(File file, long length, long lastModified) {
+		this.file = file;
+		this.length = length;
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * Records the current version of a file.
+	 *
+	 * @param file
+	 * @return
+	 */
+	static VocabSource of(File file) {
+		File abs = file.getAbsoluteFile();
+		return new VocabSource(abs, abs.length(), abs.lastModified());
+	}
+
+	/**
+	 * @return the file
+	 */
+	File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return the length of the file when recorded
+	 */
+	long getLength() {
+		return length;
+	}
+
+	/**
+	 * @return the modification time of the file when recorded
+	 */
+	long getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * Returns whether the file still has the length and modification time it
+	 * had when recorded.
+	 *
+	 * @return
+	 */
+	boolean isCurrent() {
+		return file.isFile() && file.length() == length
+				&& file.lastModified() == lastModified;
+	}
+
+	/**
+	 * Returns whether this records the same version of the file as another.
+	 *
+	 * @param other
+	 * @return
+	 */
+	boolean isSameVersion(VocabSource other) {
+		return other != null && file.equals(other.file)
+				&& length == other.length && lastModified == other.lastModified;
+	}
+}
@@ -11,6 +11,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.DefaultComboBoxModel;
 import javax.swing.DefaultListModel;
+import javax.swing.JComponent;
 import javax.swing.KeyStroke;
 import psyberchi.app.japanesevocabjsoneditor.controller.JapaneseVocabEditorController;
 import psyberchi.app.japanesevocabjsoneditor.controller.JapaneseVocabEditorController.EditorActions;
@@ -67,6 +68,8 @@ public class JapaneseVocabEditor extends javax.swing.JFrame {
 		listSelectorVocabulary.getSelector().addItemListener(controller);
 		listSelectorVocabulary.getSelector().addActionListener(controller);
 		listSelectorVocabulary.getList().addListSelectionListener(controller);
+		listSelectorVocabulary.setFilterVisible(true);
+		listSelectorVocabulary.getFilterField().getDocument().addDocumentListener(controller);
 
 		// JButton action performed listeners
 		jButtonCategoryAdd.addActionListener(controller);
@@ -82,12 +85,16 @@ public class JapaneseVocabEditor extends javax.swing.JFrame {
 		jMenuItemPreferences.addActionListener(controller);
 		jMenuItemClose.addActionListener(controller);
 		jMenuItemExit.addActionListener(controller);
+		// Escape stops a file that is still being read
+		getRootPane().registerKeyboardAction(controller, EditorActions.FileOpenCancel.name(),
+				KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0), JComponent.WHEN_IN_FOCUSED_WINDOW);
 		// JMenuItem Vocabulary action listeners
 		jMenuItemCatAdd.addActionListener(controller);
 		jMenuItemCatDelete.addActionListener(controller);
 		jMenuItemVocabAdd.addActionListener(controller);
 		jMenuItemVocabDelete.addActionListener(controller);
 		jMenuItemVocabMove.addActionListener(controller);
+		jMenuItemVocabNearDuplicates.addActionListener(controller);
 
 		// TODO Preferences change listener ???
 	}
@@ -160,6 +167,7 @@ public class JapaneseVocabEditor extends javax.swing.JFrame {
         jMenuItemVocabAdd = new javax.swing.JMenuItem();
         jMenuItemVocabDelete = new javax.swing.JMenuItem();
         jMenuItemVocabMove = new javax.swing.JMenuItem();
+        jMenuItemVocabNearDuplicates = new javax.swing.JMenuItem();
 
         jFileChooserOpen.setDialogTitle("Select JSON file");
 
@@ -299,6 +307,10 @@ public class JapaneseVocabEditor extends javax.swing.JFrame {
         jMenuItemVocabMove.setActionCommand(EditorActions.VocabMove.name());
         jMenuVocab.add(jMenuItemVocabMove);
 
+        jMenuItemVocabNearDuplicates.setText("Find Near Duplicates");
+        jMenuItemVocabNearDuplicates.setActionCommand(EditorActions.VocabNearDuplicates.name());
+        jMenuVocab.add(jMenuItemVocabNearDuplicates);
+
         jMenuBar.add(jMenuVocab);
 
         setJMenuBar(jMenuBar);
@@ -388,6 +400,7 @@ public class JapaneseVocabEditor extends javax.swing.JFrame {
     public javax.swing.JMenuItem jMenuItemVocabAdd;
     public javax.swing.JMenuItem jMenuItemVocabDelete;
     public javax.swing.JMenuItem jMenuItemVocabMove;
+    public javax.swing.JMenuItem jMenuItemVocabNearDuplicates;
     private javax.swing.JMenu jMenuVocab;
     private javax.swing.JPanel jPanelButtons;
     private javax.swing.JPanel jPanelMain;
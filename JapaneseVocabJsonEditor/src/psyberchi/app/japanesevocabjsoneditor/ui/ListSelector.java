@@ -12,6 +12,8 @@ import javax.swing.DefaultListModel;
 import javax.swing.JButton;
 import javax.swing.JComboBox;
 import javax.swing.JList;
+import javax.swing.JTextField;
+import javax.swing.ListModel;
 
 /**
  *
@@ -46,6 +48,7 @@ public class ListSelector extends javax.swing.JPanel {
 	private void postInit() {
 		jList.setModel(listModel);
 		jComboBoxSelector.setModel(selectorModel);
+		jTextFieldFilter.setVisible(false);
 	}
 
 	/**
@@ -76,6 +79,16 @@ public class ListSelector extends javax.swing.JPanel {
 		return jComboBoxSelector;
 	}
 
+	/**
+	 * Returns the field for filtering the list, which is hidden unless shown
+	 * with {@link #setFilterVisible(boolean)}.
+	 *
+	 * @return
+	 */
+	public JTextField getFilterField() {
+		return jTextFieldFilter;
+	}
+
 	/**
 	 * Removes a button identified by its action command.
 	 *
@@ -91,14 +104,43 @@ public class ListSelector extends javax.swing.JPanel {
 		return false;
 	}
 
-	public void setListModel(DefaultListModel model) {
+	/**
+	 * Shows or hides the filter field above the list.
+	 *
+	 * @param visible
+	 */
+	public void setFilterVisible(boolean visible) {
+		jTextFieldFilter.setVisible(visible);
+		revalidate();
+	}
+
+	/**
+	 * Sets the model of the list. Only a DefaultListModel can be filled in
+	 * with {@link #setListItems(List)}, other models are filled in by their
+	 * owner.
+	 *
+	 * @param model
+	 */
+	public void setListModel(ListModel<?> model) {
 		// @todo handle null?
-		listModel = model;
+		// Don't keep filling in a model the list no longer shows
+		listModel = (model instanceof DefaultListModel) ? (DefaultListModel) model : null;
 		jList.setModel(model);
 	}
 
+	/**
+	 * Replaces the items of the list.
+	 *
+	 * @param list
+	 * @throws IllegalStateException if the list's model is not a
+	 * DefaultListModel.
+	 */
 	public void setListItems(List<Object> list) {
 		// @todo handle null?
+		if (listModel == null) {
+			throw new IllegalStateException("List model can't be filled in: "
+					+ jList.getModel().getClass().getName());
+		}
 		listModel.clear();
 		for (Object o : list) {
 			listModel.addElement(o);
@@ -135,6 +177,7 @@ public class ListSelector extends javax.swing.JPanel {
         jPanelComboBox = new javax.swing.JPanel();
         jComboBoxSelector = new javax.swing.JComboBox();
         jPanelList = new javax.swing.JPanel();
+        jTextFieldFilter = new javax.swing.JTextField();
         jScrollPane = new javax.swing.JScrollPane();
         jList = new javax.swing.JList();
         jPanelButtons = new javax.swing.JPanel();
@@ -149,6 +192,9 @@ public class ListSelector extends javax.swing.JPanel {
 
         jPanelList.setLayout(new java.awt.BorderLayout());
 
+        jTextFieldFilter.setToolTipText("Filter");
+        jPanelList.add(jTextFieldFilter, java.awt.BorderLayout.NORTH);
+
         jScrollPane.setViewportView(jList);
 
         jPanelList.add(jScrollPane, java.awt.BorderLayout.CENTER);
@@ -165,5 +211,6 @@ public class ListSelector extends javax.swing.JPanel {
     private javax.swing.JPanel jPanelComboBox;
     private javax.swing.JPanel jPanelList;
     private javax.swing.JScrollPane jScrollPane;
+    private javax.swing.JTextField jTextFieldFilter;
     // End of variables declaration//GEN-END:variables
 }
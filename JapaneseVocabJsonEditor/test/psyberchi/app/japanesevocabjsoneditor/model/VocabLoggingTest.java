@@ -0,0 +1,124 @@
+/*
+ *  VocabLoggingTest.java
+ *
+ *  GNU GPL License.
+ */
+package psyberchi.app.japanesevocabjsoneditor.model;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.json.simple.parser.JSONParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that vocabulary is not serialized for log messages that are not
+ * logged, which used to happen for every item added or removed.
+ *
+ * @author Kendall Conrad
+ */
+public class VocabLoggingTest {
+	private static final String[] LOGGER_NAMES = {
+		VocabModel.class.getCanonicalName(),
+		VocabCategory.class.getCanonicalName(),
+		VocabContentHandler.class.getCanonicalName(),
+		JsonVocabIO.class.getCanonicalName()
+	};
+	private final List<Level> oldLevels = new ArrayList<>();
+
+	/**
+	 * A vocabulary item that counts how many times it is serialized.
+	 */
+	private static class CountingVocabItem extends VocabItem {
+		int serialized = 0;
+
+		CountingVocabItem(String en, String ro, String kn, String kj, int les) {
+			super(en, ro, kn, kj, les);
+		}
+
+		@Override
+		public String toJSONString() {
+			serialized++;
+			return super.toJSONString();
+		}
+
+		@Override
+		public void writeJSONString(Writer out) throws IOException {
+			serialized++;
+			super.writeJSONString(out);
+		}
+	}
+
+	@Before
+	public void setUp() {
+		for (String name : LOGGER_NAMES) {
+			Logger logger = Logger.getLogger(name);
+			oldLevels.add(logger.getLevel());
+			logger.setLevel(Level.INFO);
+		}
+	}
+
+	@After
+	public void tearDown() {
+		for (int a = 0; a < LOGGER_NAMES.length; a++) {
+			Logger.getLogger(LOGGER_NAMES[a]).setLevel(oldLevels.get(a));
+		}
+	}
+
+	@Test
+	public void testAddRemoveNotSerialized() {
+		VocabModel model = new VocabModel();
+		model.addCategory("animals");
+		model.addCategory("food");
+		List<CountingVocabItem> items = new ArrayList<>();
+		for (int a = 0; a < 100; a++) {
+			CountingVocabItem item = new CountingVocabItem("word " + a, "kotoba " + a,
+					"\u3053\u3068\u3070", "\u8a00\u8449", a % 5);
+			items.add(item);
+			assertTrue(model.addVocabItem("animals", item));
+		}
+		for (CountingVocabItem item : items) {
+			assertTrue(model.removeVocabItem("animals", item));
+			assertTrue(model.addVocabItem("food", item));
+		}
+		for (CountingVocabItem item : items) {
+			assertEquals(0, item.serialized);
+		}
+	}
+
+	@Test
+	public void testReadNotSerialized() throws Exception {
+		StringBuilder json = new StringBuilder("{\n\t\"animals\": [\n");
+		for (int a = 0; a < 100; a++) {
+			json.append(a == 0 ? "" : ",\n").append(String.format(
+					"\t\t{\"en\":\"word %d\", \"ro\":\"kotoba %d\", \"kn\":\"\u3053\u3068\u3070\", \"kj\":\"\u8a00\u8449\", \"ln\":%d}",
+					a, a, a % 5));
+		}
+		json.append("\n\t]\n}\n");
+		// Read the way the streaming reader does, handing the model items
+		// that count their serializations
+		final List<CountingVocabItem> items = new ArrayList<>();
+		VocabContentHandler handler = new VocabContentHandler() {
+			@Override
+			boolean addVocabItem(String cat, VocabItem item) {
+				CountingVocabItem counting = new CountingVocabItem(item.getEnglish(),
+						item.getRomaji(), item.getKana(), item.getKanji(), item.getLesson());
+				items.add(counting);
+				return super.addVocabItem(cat, counting);
+			}
+		};
+		new JSONParser().parse(new StringReader(json.toString()), handler);
+		assertEquals(100, handler.getModel().getVocabCount());
+		for (CountingVocabItem item : items) {
+			assertEquals(0, item.serialized);
+		}
+	}
+}